@@ -0,0 +1,333 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Identifies resources using the formats that were found most often
+ *  to reduce the number of entries evaluated.
+ *
+ *  <p>The number of times each entry is the result is counted, and
+ *  periodically the most frequent entries are published as the hot
+ *  entries, which are evaluated first. When a hot entry matches, only
+ *  the entries ranked before it still have to be evaluated to find the
+ *  best match, and among them the entries whose checks need other
+ *  bytes at the same offsets than the hot entry cannot match, so they
+ *  are skipped. For instance once a JPEG signature has matched, the
+ *  entries checking other strings at the start of the data are not
+ *  evaluated.</p>
+ *
+ *  <p>The result is always the same as
+ *  {@link IdentifierMagicDB#loadMetadata(DataInput, Properties)}. Once
+ *  created, an instance can be used by several threads at the same
+ *  time.</p>
+ */
+public class AdaptiveIdentifier
+{
+    /** Default number of identifications between two publications */
+    public static final int DEFAULT_PUBLISH_INTERVAL = 1000;
+    /** Default maximum number of hot entries */
+    public static final int DEFAULT_HOT_ENTRY_COUNT = 8;
+
+    private IdentifierMagicDB identifier;
+    private int publishInterval;
+    private int hotEntryCount;
+    /** The byte patterns checked by each entry of the entry table */
+    private Pattern[][] entryPatterns;
+
+    /** Number of times each entry was the result */
+    private int[] hits;
+    /** Number of identifications since the last publication */
+    private int identificationCount;
+    /** The current evaluation plan, which is replaced when published */
+    private volatile Plan plan;
+
+    /** Creates an adaptive identifier with the default settings.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public AdaptiveIdentifier(IdentifierMagicDB identifier)
+    {
+        this(identifier, DEFAULT_PUBLISH_INTERVAL, DEFAULT_HOT_ENTRY_COUNT);
+    }
+
+    /** Creates an adaptive identifier.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param publishInterval The number of identifications between two
+     *   updates of the hot entries.
+     * @param hotEntryCount The maximum number of hot entries.
+     */
+    public AdaptiveIdentifier(IdentifierMagicDB identifier, int publishInterval, int hotEntryCount)
+    {
+        super();
+        MagicEntry[] entryTable = identifier.getEntryTable();
+        int i;
+
+        if (publishInterval < 1)
+            throw new IllegalArgumentException("Error: Publish interval must be at least 1");
+        this.identifier = identifier;
+        this.publishInterval = publishInterval;
+        this.hotEntryCount = hotEntryCount;
+        hits = new int[entryTable.length];
+        entryPatterns = new Pattern[entryTable.length][];
+        for (i = 0; i < entryTable.length; i++)
+        {
+            entryPatterns[i] = getPatterns(entryTable[i]);
+        }
+        plan = new Plan(new int[0], new int[0][]);
+    }
+
+    /** Returns the byte patterns that must be present for the entry and
+     *  its continuation entries to match.
+     */
+    private Pattern[] getPatterns(MagicEntry entry)
+    {
+        LinkedList list = new LinkedList();
+        MagicEntry check;
+        byte[] b;
+        int i;
+
+        for (i = -1; i < entry.matchEntries.size(); i++)
+        {
+            check = (i == -1) ? entry : (MagicEntry)entry.matchEntries.get(i);
+            b = identifier.getEntryPattern(check);
+            if (b != null)
+                list.add(new Pattern(check.offset, b));
+        }
+        return (Pattern[])list.toArray(new Pattern[list.size()]);
+    }
+
+    /** Returns true if two entries cannot match the same data, because
+     *  they need different bytes at the same position.
+     */
+    private boolean isExclusive(int entry1, int entry2)
+    {
+        Pattern[] patterns1 = entryPatterns[entry1];
+        Pattern[] patterns2 = entryPatterns[entry2];
+        Pattern p1;
+        Pattern p2;
+        long start;
+        long end;
+        long position;
+        int i;
+        int j;
+
+        for (i = 0; i < patterns1.length; i++)
+        {
+            p1 = patterns1[i];
+            for (j = 0; j < patterns2.length; j++)
+            {
+                p2 = patterns2[j];
+                start = Math.max(p1.offset, p2.offset);
+                end = Math.min(p1.offset + p1.bytes.length, p2.offset + p2.bytes.length);
+                for (position = start; position < end; position++)
+                {
+                    if (p1.bytes[(int)(position - p1.offset)] != p2.bytes[(int)(position - p2.offset)])
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** From the specified input, try to identify the resource and return
+     *  the filled property table.
+     *
+     * @param input The input that needs to be identified.
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(DataInput input, Properties metadata) throws IOException
+    {
+        Plan current = plan;
+        int[] order = identifier.getEvaluationOrder();
+        boolean[] evaluated = null;
+        long length;
+        int best;
+        int hot;
+        int i;
+        int j;
+
+        length = identifier.getLength(input);
+        best = -1;
+        for (i = 0; (i < current.hotEntries.length) && (best == -1); i++)
+        {
+            hot = current.hotEntries[i];
+            if (!identifier.matchEntry(input, length, hot))
+            {
+                if (evaluated == null)
+                    evaluated = new boolean[order.length];
+                evaluated[hot] = true;
+                continue;
+            }
+            // Only the entries ranked before the hot entry that can match
+            // at the same time can be a better match.
+            best = hot;
+            for (j = 0; j < current.candidates[i].length; j++)
+            {
+                if ((evaluated != null) && evaluated[current.candidates[i][j]])
+                    continue;
+                if (identifier.matchEntry(input, length, current.candidates[i][j]))
+                {
+                    best = current.candidates[i][j];
+                    break;
+                }
+            }
+        }
+        if (best == -1)
+        {
+            for (i = 0; i < order.length; i++)
+            {
+                if ((evaluated != null) && evaluated[order[i]])
+                    continue;
+                if (identifier.matchEntry(input, length, order[i]))
+                {
+                    best = order[i];
+                    break;
+                }
+            }
+        }
+        count(best);
+        if (best == -1)
+            return false;
+        identifier.describeEntry(input, length, best, metadata);
+        return true;
+    }
+
+    /** Counts the result of an identification, and publishes the hot
+     *  entries when needed.
+     */
+    private void count(int best)
+    {
+        int[] counts;
+        synchronized (hits)
+        {
+            if (best != -1)
+                hits[best]++;
+            identificationCount++;
+            if (identificationCount < publishInterval)
+                return;
+            identificationCount = 0;
+            counts = (int[])hits.clone();
+        }
+        publish(counts);
+    }
+
+    /** Publishes the hot entries for the specified number of hits. */
+    private void publish(int[] counts)
+    {
+        int[] order = identifier.getEvaluationOrder();
+        int[] hotEntries;
+        int[][] candidates;
+        int[] list;
+        int count;
+        int best;
+        int hot;
+        int i;
+        int j;
+
+        // Select the entries with the most hits
+        hotEntries = new int[Math.min(hotEntryCount, counts.length)];
+        count = 0;
+        while (count < hotEntries.length)
+        {
+            best = -1;
+            for (i = 0; i < counts.length; i++)
+            {
+                if ((counts[i] > 0) && ((best == -1) || (counts[i] > counts[best])))
+                    best = i;
+            }
+            if (best == -1)
+                break;
+            hotEntries[count++] = best;
+            counts[best] = 0;
+        }
+        if (count < hotEntries.length)
+        {
+            list = new int[count];
+            System.arraycopy(hotEntries, 0, list, 0, count);
+            hotEntries = list;
+        }
+
+        // For each hot entry, the entries ranked before it which can
+        // match at the same time, in evaluation order.
+        candidates = new int[hotEntries.length][];
+        for (i = 0; i < hotEntries.length; i++)
+        {
+            hot = hotEntries[i];
+            list = new int[order.length];
+            count = 0;
+            for (j = 0; (j < order.length) && (order[j] != hot); j++)
+            {
+                if (!isExclusive(hot, order[j]))
+                    list[count++] = order[j];
+            }
+            candidates[i] = new int[count];
+            System.arraycopy(list, 0, candidates[i], 0, count);
+        }
+        plan = new Plan(hotEntries, candidates);
+    }
+
+    /** Returns the indexes in the entry table of the current hot entries,
+     *  from the most frequent.
+     */
+    public int[] getHotEntries()
+    {
+        return (int[])plan.hotEntries.clone();
+    }
+
+    /** Bytes that must be at an offset for an entry to match. */
+    private static class Pattern
+    {
+        long offset;
+        byte[] bytes;
+
+        Pattern(long offset, byte[] bytes)
+        {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Evaluation plan published from the statistics. */
+    private static class Plan
+    {
+        /** The hot entries, evaluated first */
+        int[] hotEntries;
+        /** For each hot entry, the other entries to evaluate if it matches */
+        int[][] candidates;
+
+        Plan(int[] hotEntries, int[][] candidates)
+        {
+            this.hotEntries = hotEntries;
+            this.candidates = candidates;
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,462 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Identifies files without blocking the caller. Each identification
+ *  returns immediately an {@link IdentificationFuture}, which is
+ *  completed by the threads of this class.
+ *
+ *  <p>Data that is already in memory can also be identified with
+ *  {@link #identify(ByteBuffer)}.</p>
+ *
+ *  <p>Instead of reading the file entry by entry, the data is read in a
+ *  few positioned reads: the start and the end of the file needed by the
+ *  direct offset entries are read first, and additional reads are only
+ *  done for the entries with indirect offsets. Between two reads, a
+ *  request goes back at the end of the queue, so a thread is never
+ *  waiting for one file while others are ready.</p>
+ *
+ *  <p>By default the entries are evaluated by the I/O threads. If
+ *  evaluation threads are specified, the I/O threads only read the
+ *  data, and the evaluation is done by the evaluation threads, so that
+ *  many blocking reads can be pending while the number of threads
+ *  evaluating the entries is kept to the number of processors.</p>
+ *
+ *  <p>The result is the same as calling
+ *  {@link IdentifierMagicDB#loadMetadata(java.io.DataInput, java.util.Properties)}
+ *  on the complete file.</p>
+ */
+public class AsynchronousIdentifier
+{
+    /** Minimum size of the reads done for the indirect offset entries */
+    private static final int MINIMUM_READ_SIZE = 512;
+
+    private IdentifierMagicDB identifier;
+    private int ioThreadCount;
+    private int cpuThreadCount;
+    private Thread[] threads;
+    /** Lock protecting the queues and the counters */
+    private Object lock;
+    /** Queue of the requests waiting for their data to be read */
+    private LinkedList ioQueue;
+    /** Queue of the requests waiting to be evaluated */
+    private LinkedList cpuQueue;
+    /** Number of requests not completed yet */
+    private int activeCount;
+    private boolean shutdown;
+
+    /** Creates an asynchronous identifier using one I/O thread.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public AsynchronousIdentifier(IdentifierMagicDB identifier)
+    {
+        this(identifier, 1);
+    }
+
+    /** Creates an asynchronous identifier where the I/O threads also
+     *  evaluate the entries.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param threadCount The number of I/O threads.
+     */
+    public AsynchronousIdentifier(IdentifierMagicDB identifier, int threadCount)
+    {
+        this(identifier, threadCount, 0);
+    }
+
+    /** Creates an asynchronous identifier.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param ioThreadCount The number of threads reading the data.
+     * @param cpuThreadCount The number of threads evaluating the entries,
+     *   or 0 for the entries to be evaluated by the I/O threads.
+     */
+    public AsynchronousIdentifier(IdentifierMagicDB identifier, int ioThreadCount, int cpuThreadCount)
+    {
+        super();
+        if (ioThreadCount < 1)
+            throw new IllegalArgumentException("Error: Thread count must be at least 1");
+        if (cpuThreadCount < 0)
+            throw new IllegalArgumentException("Error: Thread count cannot be negative");
+        this.identifier = identifier;
+        this.ioThreadCount = ioThreadCount;
+        this.cpuThreadCount = cpuThreadCount;
+        lock = new Object();
+        ioQueue = new LinkedList();
+        cpuQueue = new LinkedList();
+    }
+
+    /** Requests the identification of a file. The file is opened and
+     *  closed by the I/O thread.
+     *
+     * @param file The file to identify.
+     * @return The future completed with the result of the identification.
+     */
+    public IdentificationFuture identify(File file)
+    {
+        Request request = new Request(new IdentificationFuture(file));
+        request.file = file;
+        submit(request);
+        return request.future;
+    }
+
+    /** Requests the identification of the data of a file channel. The
+     *  channel is only accessed with positioned reads, so its position
+     *  is not changed, and it is not closed.
+     *
+     * @param channel The channel to identify.
+     * @return The future completed with the result of the identification.
+     */
+    public IdentificationFuture identify(FileChannel channel)
+    {
+        Request request = new Request(new IdentificationFuture(channel));
+        request.channel = channel;
+        submit(request);
+        return request.future;
+    }
+
+    /** Requests the identification of the remaining data of a buffer,
+     *  from its position to its limit. The buffer must not be modified
+     *  until the identification is complete, and its position is not
+     *  changed.
+     *
+     * @param buffer The buffer to identify.
+     * @return The future completed with the result of the identification.
+     */
+    public IdentificationFuture identify(ByteBuffer buffer)
+    {
+        Request request = new Request(new IdentificationFuture(buffer));
+        request.buffer = buffer.duplicate();
+        submit(request);
+        return request.future;
+    }
+
+    /** Requests the identification of a source, which can be a
+     *  {@link File}, a {@link FileChannel}, a {@link ByteBuffer} or a byte
+     *  array. The future of a source of another type is completed with
+     *  an error.
+     *
+     * @param source The source to identify.
+     * @return The future completed with the result of the identification.
+     */
+    public IdentificationFuture identifySource(Object source)
+    {
+        IdentificationFuture future;
+        if (source instanceof File)
+            return identify((File)source);
+        if (source instanceof FileChannel)
+            return identify((FileChannel)source);
+        if (source instanceof ByteBuffer)
+            return identify((ByteBuffer)source);
+        if (source instanceof byte[])
+            return identify(ByteBuffer.wrap((byte[])source));
+        future = new IdentificationFuture(source);
+        future.complete(null, new IOException("Error: Unsupported source type"));
+        return future;
+    }
+
+    /** Stops the threads once the pending identifications are
+     *  complete. No other identification can be requested afterwards.
+     */
+    public void shutdown()
+    {
+        synchronized (lock)
+        {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void submit(Request request)
+    {
+        int i;
+        synchronized (lock)
+        {
+            if (shutdown)
+                throw new IllegalStateException("Error: Identifier is shut down");
+            if (threads == null)
+            {
+                threads = new Thread[ioThreadCount + cpuThreadCount];
+                for (i = 0; i < threads.length; i++)
+                {
+                    threads[i] = new Thread(new Worker(i >= ioThreadCount), "MagicDB identifier "+Integer.toString(i));
+                    threads[i].setDaemon(true);
+                    threads[i].start();
+                }
+            }
+            activeCount++;
+            // Data in memory does not need to be read
+            if ((request.buffer != null) && (cpuThreadCount > 0))
+                cpuQueue.addLast(request);
+            else
+                ioQueue.addLast(request);
+            lock.notifyAll();
+        }
+    }
+
+    /** Returns the next request to process in a queue, or null once shut
+     *  down and all the requests are complete.
+     */
+    private Request nextRequest(LinkedList queue)
+    {
+        synchronized (lock)
+        {
+            while (queue.isEmpty())
+            {
+                if (shutdown && (activeCount == 0))
+                    return null;
+                try
+                {
+                    lock.wait();
+                } catch (InterruptedException e)
+                {
+                    return null;
+                }
+            }
+            return (Request)queue.removeFirst();
+        }
+    }
+
+    /** Adds a request to a queue. */
+    private void enqueue(LinkedList queue, Request request)
+    {
+        synchronized (lock)
+        {
+            queue.addLast(request);
+            lock.notifyAll();
+        }
+    }
+
+    /** Does the next reads of a request. */
+    private void read(Request request) throws IOException
+    {
+        long size;
+        long start;
+        long end;
+        int i;
+
+        if (request.input != null)
+        {
+            size = request.input.length();
+            for (i = 0; i < request.evaluation.getMissingCount(); i++)
+            {
+                start = request.evaluation.getMissingPosition(i);
+                if (request.input.isAvailable(start))
+                    continue;
+                end = start + Math.max(request.evaluation.getMissingLength(i), MINIMUM_READ_SIZE);
+                read(request, start, Math.min(size, end));
+            }
+            return;
+        }
+        request.evaluation = new PartialEvaluation(identifier);
+        if (request.buffer != null)
+        {
+            request.input = getBufferInput(request.buffer);
+            return;
+        }
+        if (request.file != null)
+        {
+            request.stream = new FileInputStream(request.file);
+            request.channel = request.stream.getChannel();
+        }
+        size = request.channel.size();
+        request.input = new RangeDataInput();
+        request.input.setLength(size);
+        end = Math.min(size, identifier.getHeadLength());
+        read(request, 0, end);
+        start = Math.max(end, size - identifier.getTailLength());
+        read(request, start, size);
+    }
+
+    /** Evaluates the entries with the data read.
+     *
+     * @return true if the identification is complete.
+     */
+    private boolean evaluate(Request request) throws IOException
+    {
+        // The length is known, so only the indirect offset entries can
+        // still be missing data.
+        if (request.evaluation.evaluate(request.input, false) == IncrementalIdentifier.STATUS_FINAL)
+            return true;
+        if (request.evaluation.getMissingCount() == 0)
+        {
+            request.evaluation.evaluate(request.input, true);
+            return true;
+        }
+        return false;
+    }
+
+    /** Returns an input over the remaining data of a buffer. The data
+     *  is only copied if the buffer has no accessible array.
+     */
+    private static RangeDataInput getBufferInput(ByteBuffer buffer)
+    {
+        byte[] b;
+        if (buffer.hasArray())
+            return new RangeDataInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        b = new byte[buffer.remaining()];
+        buffer.get(b);
+        return new RangeDataInput(b, 0, b.length);
+    }
+
+    /** Reads the data between the specified positions of the file.
+     *
+     * @throws EOFException If the file is now shorter than the length
+     *   read when the identification started, since the missing data
+     *   would then be requested again forever.
+     */
+    private void read(Request request, long start, long end) throws IOException
+    {
+        ByteBuffer buffer;
+        int count;
+
+        if (start >= end)
+            return;
+        buffer = ByteBuffer.allocate((int)(end - start));
+        while (buffer.hasRemaining())
+        {
+            count = request.channel.read(buffer, start + buffer.position());
+            if (count == -1)
+                throw new EOFException("Error: File truncated during identification");
+        }
+        request.input.addRange(start, buffer.array(), 0, buffer.position());
+    }
+
+    private void complete(Request request, IOException exception)
+    {
+        Properties result;
+
+        if (request.stream != null)
+        {
+            try
+            {
+                request.stream.close();
+            } catch (IOException e)
+            {
+            }
+        }
+        result = null;
+        if (exception == null)
+            result = request.evaluation.getResult();
+        // The request is no longer active even if a listener fails
+        try
+        {
+            request.future.complete(result, exception);
+        } finally
+        {
+            synchronized (lock)
+            {
+                activeCount--;
+                if (activeCount == 0)
+                    lock.notifyAll();
+            }
+        }
+    }
+
+    /** State of the identification of one file. */
+    private static class Request
+    {
+        IdentificationFuture future;
+        File file;
+        FileInputStream stream;
+        FileChannel channel;
+        ByteBuffer buffer;
+        PartialEvaluation evaluation;
+        RangeDataInput input;
+
+        Request(IdentificationFuture future)
+        {
+            this.future = future;
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        /** Indicates that this thread evaluates the entries instead of
+         *  reading the data.
+         */
+        private boolean evaluator;
+
+        Worker(boolean evaluator)
+        {
+            this.evaluator = evaluator;
+        }
+
+        public void run()
+        {
+            Request request;
+
+            while ((request = nextRequest(evaluator ? cpuQueue : ioQueue)) != null)
+            {
+                try
+                {
+                    if (evaluator)
+                    {
+                        // Requests on data in memory are not read first
+                        if (request.input == null)
+                            read(request);
+                        if (evaluate(request))
+                            complete(request, null);
+                        else
+                            enqueue(ioQueue, request);
+                    } else
+                    {
+                        read(request);
+                        if (cpuThreadCount > 0)
+                            enqueue(cpuQueue, request);
+                        else
+                        if (evaluate(request))
+                            complete(request, null);
+                        else
+                            enqueue(ioQueue, request);
+                    }
+                } catch (IOException e)
+                {
+                    complete(request, e);
+                } catch (RuntimeException e)
+                {
+                    complete(request, new IOException("Error: "+e.toString()));
+                } catch (Error e)
+                {
+                    // The request is completed so that nobody waits for it
+                    // forever, and the thread goes on with the next ones.
+                    // If the error came from a listener, it is complete.
+                    if (request.future.isDone() == false)
+                        complete(request, new IOException("Error: "+e.toString()));
+                }
+            }
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,208 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/** Identifies large numbers of resources. The sources are given by an
+ *  iterator, and the results are returned by another iterator, either
+ *  in the order of the sources or in the order in which they complete.
+ *
+ *  <p>The data is read by a pool of I/O threads, so that many blocking
+ *  reads can be pending at the same time, while the entries are
+ *  evaluated by a separate pool of threads, by default one per
+ *  processor. The number of sources being identified at the same time
+ *  is bounded, so the sources are only taken from their iterator as the
+ *  results are retrieved.</p>
+ *
+ *  <p>The sources can be of any type supported by
+ *  {@link AsynchronousIdentifier#identifySource(Object)}. Each result is
+ *  a completed {@link IdentificationFuture}, whose
+ *  {@link IdentificationFuture#getSource()} returns the source.</p>
+ */
+public class BatchIdentifier
+{
+    /** Default number of I/O threads */
+    public static final int DEFAULT_IO_THREAD_COUNT = 16;
+
+    private AsynchronousIdentifier identifier;
+    private int maxInFlight;
+
+    /** Creates a batch identifier with the default number of I/O
+     *  threads and one evaluation thread per processor.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public BatchIdentifier(IdentifierMagicDB identifier)
+    {
+        this(identifier, DEFAULT_IO_THREAD_COUNT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a batch identifier where the number of sources being
+     *  identified at the same time is twice the number of threads.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param ioThreadCount The number of threads reading the data.
+     * @param cpuThreadCount The number of threads evaluating the entries.
+     */
+    public BatchIdentifier(IdentifierMagicDB identifier, int ioThreadCount, int cpuThreadCount)
+    {
+        this(identifier, ioThreadCount, cpuThreadCount, 2 * (ioThreadCount + cpuThreadCount));
+    }
+
+    /** Creates a batch identifier.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param ioThreadCount The number of threads reading the data.
+     * @param cpuThreadCount The number of threads evaluating the entries.
+     * @param maxInFlight The maximum number of sources being identified
+     *   at the same time by each batch.
+     */
+    public BatchIdentifier(IdentifierMagicDB identifier, int ioThreadCount, int cpuThreadCount, int maxInFlight)
+    {
+        super();
+        if (cpuThreadCount < 1)
+            throw new IllegalArgumentException("Error: Thread count must be at least 1");
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Error: Maximum number of sources in flight must be at least 1");
+        this.identifier = new AsynchronousIdentifier(identifier, ioThreadCount, cpuThreadCount);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /** Identifies a batch of sources. The sources are taken from the
+     *  iterator by the thread using the returned iterator, as the results
+     *  are retrieved.
+     *
+     * @param sources The iterator over the sources to identify.
+     * @param ordered true to return the results in the order of the
+     *   sources, false to return them as they complete.
+     * @return An iterator over the completed {@link IdentificationFuture}
+     *   of each source. Its next() method waits until a result is
+     *   available.
+     */
+    public Iterator identify(Iterator sources, boolean ordered)
+    {
+        return new ResultIterator(sources, ordered);
+    }
+
+    /** Stops the threads once the pending identifications are complete. */
+    public void shutdown()
+    {
+        identifier.shutdown();
+    }
+
+    /** Iterator returning the results of a batch. */
+    private class ResultIterator implements Iterator, IdentificationListener
+    {
+        private Iterator sources;
+        private boolean ordered;
+        /** The futures in the order of the sources, if ordered */
+        private LinkedList submitted;
+        /** The completed futures in the order of completion, if not ordered */
+        private LinkedList completed;
+        /** Number of sources submitted whose result has not been returned */
+        private int inFlight;
+
+        ResultIterator(Iterator sources, boolean ordered)
+        {
+            this.sources = sources;
+            this.ordered = ordered;
+            submitted = new LinkedList();
+            completed = new LinkedList();
+        }
+
+        /** Submits sources until the maximum in flight is reached. */
+        private void fill()
+        {
+            IdentificationFuture future;
+            while ((inFlight < maxInFlight) && sources.hasNext())
+            {
+                future = identifier.identifySource(sources.next());
+                inFlight++;
+                if (ordered)
+                    submitted.addLast(future);
+                else
+                    future.addListener(this);
+            }
+        }
+
+        public void identificationCompleted(IdentificationFuture future)
+        {
+            synchronized (completed)
+            {
+                completed.addLast(future);
+                completed.notifyAll();
+            }
+        }
+
+        public boolean hasNext()
+        {
+            fill();
+            return inFlight > 0;
+        }
+
+        public Object next()
+        {
+            IdentificationFuture future;
+
+            fill();
+            if (inFlight == 0)
+                throw new NoSuchElementException();
+            try
+            {
+                if (ordered)
+                {
+                    future = (IdentificationFuture)submitted.getFirst();
+                    future.waitFor();
+                    submitted.removeFirst();
+                } else
+                {
+                    synchronized (completed)
+                    {
+                        while (completed.isEmpty())
+                        {
+                            completed.wait();
+                        }
+                        future = (IdentificationFuture)completed.removeFirst();
+                    }
+                }
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Error: Interrupted while waiting for a result");
+            }
+            inFlight--;
+            fill();
+            return future;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
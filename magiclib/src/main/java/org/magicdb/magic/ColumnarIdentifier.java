@@ -0,0 +1,395 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Identifies a batch of small resources that are in memory by
+ *  evaluating each entry on all the resources at once, instead of
+ *  evaluating all the entries on each resource.
+ *
+ *  <p>The first bytes of each resource are copied in one contiguous
+ *  buffer. Each check with a direct offset within these first bytes is
+ *  then done in a single loop over the resources which still match the
+ *  entry, and the resources that fail the check are dropped before the
+ *  next check. The entries are evaluated in rank order, so a resource is
+ *  done once an entry matches it. The other checks, such as checks relative to the end
+ *  or with indirect offsets, are done on the complete data of each
+ *  resource which still matches.</p>
+ *
+ *  <p>The result for each resource is the same as calling
+ *  {@link IdentifierMagicDB#loadMetadata(java.io.DataInput, Properties)}
+ *  on it. Once created, an instance can be used by several threads at
+ *  the same time.</p>
+ */
+public class ColumnarIdentifier
+{
+    /** Default number of bytes copied from the start of each resource */
+    public static final int DEFAULT_WINDOW_LENGTH = 128;
+
+    /** Check that is done on the complete data of each resource */
+    private static final int CHECK_FALLBACK = 0;
+    /** Numeric check in the window */
+    private static final int CHECK_NUMERIC = 1;
+    /** String equality check in the window */
+    private static final int CHECK_STRING = 2;
+
+    private IdentifierMagicDB identifier;
+    private int windowLength;
+    /** The checks of each entry of the entry table, the first one being
+     *  the entry itself, followed by its continuation entries.
+     */
+    private Check[][] entryChecks;
+
+    /** Creates a columnar identifier with the default window length.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public ColumnarIdentifier(IdentifierMagicDB identifier)
+    {
+        this(identifier, DEFAULT_WINDOW_LENGTH);
+    }
+
+    /** Creates a columnar identifier.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param windowLength The number of bytes copied from the start of
+     *   each resource. Checks reading data after it are slower.
+     */
+    public ColumnarIdentifier(IdentifierMagicDB identifier, int windowLength)
+    {
+        super();
+        MagicEntry[] entryTable = identifier.getEntryTable();
+        LinkedList list;
+        int i;
+        int j;
+
+        if (windowLength < 1)
+            throw new IllegalArgumentException("Error: Window length must be at least 1");
+        this.identifier = identifier;
+        this.windowLength = windowLength;
+        entryChecks = new Check[entryTable.length][];
+        for (i = 0; i < entryTable.length; i++)
+        {
+            // Nested entries are checked with the complete entry, after
+            // their parent entry
+            if (entryTable[i].nestedEntries)
+            {
+                entryChecks[i] = new Check[1];
+                entryChecks[i][0] = new Check();
+                entryChecks[i][0].entry = entryTable[i];
+                entryChecks[i][0].kind = CHECK_FALLBACK;
+                continue;
+            }
+            list = entryTable[i].matchEntries;
+            entryChecks[i] = new Check[1 + list.size()];
+            entryChecks[i][0] = compileCheck(entryTable[i]);
+            for (j = 0; j < list.size(); j++)
+            {
+                entryChecks[i][j + 1] = compileCheck((MagicEntry)list.get(j));
+            }
+        }
+    }
+
+    /** Returns how a check can be done for an entry. */
+    private Check compileCheck(MagicEntry entry)
+    {
+        Check check = new Check();
+        long extent;
+
+        check.entry = entry;
+        check.kind = CHECK_FALLBACK;
+        extent = identifier.getEntryExtent(entry);
+        if ((extent < 0) || (extent > windowLength))
+            return check;
+        check.offset = (int)entry.offset;
+        check.length = (int)extent - check.offset;
+        if (entry.isNumeric())
+        {
+            check.kind = CHECK_NUMERIC;
+            if (entry.comparisonOperator != 'x')
+                check.value = entry.value.getLong(0);
+        } else
+        if ((entry.type == MagicEntry.TYPE_STRING) &&
+           ((entry.comparisonOperator == '=') || (entry.comparisonOperator == '!')))
+        {
+            check.kind = CHECK_STRING;
+            check.pattern = entry.value.array();
+        }
+        return check;
+    }
+
+    /** Identifies a batch of resources.
+     *
+     * @param data The complete data of each resource.
+     * @param metadata The property table of each resource where the result
+     *   is returned. The metadata tables are NOT cleared in this method,
+     *   it will simply overwrite existing properties.
+     * @param errors If not null, returns the error that stopped the
+     *   identification of each resource, or null. A runtime exception
+     *   is returned wrapped in an IOException, and does not stop the
+     *   identification of the other resources.
+     * @return The number of resources for which at least one property was set.
+     */
+    public int loadMetadata(byte[][] data, Properties[] metadata, IOException[] errors)
+    {
+        int count = data.length;
+        byte[] window = new byte[count * windowLength];
+        int[] lengths = new int[count];
+        RangeDataInput[] inputs = new RangeDataInput[count];
+        int[] best = new int[count];
+        int[] alive = new int[count];
+        int[] order = identifier.getEvaluationOrder();
+        int aliveCount;
+        int identified;
+        int i;
+        int j;
+        int k;
+        int n;
+
+        for (i = 0; i < count; i++)
+        {
+            lengths[i] = data[i].length;
+            System.arraycopy(data[i], 0, window, i * windowLength, Math.min(lengths[i], windowLength));
+            best[i] = -1;
+            if (errors != null)
+                errors[i] = null;
+        }
+
+        for (n = 0; n < order.length; n++)
+        {
+            // The entries are in rank order, so the resources which
+            // already have a match are done.
+            i = order[n];
+            aliveCount = 0;
+            for (k = 0; k < count; k++)
+            {
+                if ((best[k] == -1) && ((errors == null) || (errors[k] == null)))
+                    alive[aliveCount++] = k;
+            }
+            if (aliveCount == 0)
+                break;
+            for (j = 0; (j < entryChecks[i].length) && (aliveCount > 0); j++)
+            {
+                switch (entryChecks[i][j].kind)
+                {
+                    case CHECK_NUMERIC:
+                        aliveCount = filterNumeric(entryChecks[i][j], window, lengths, alive, aliveCount);
+                        break;
+                    case CHECK_STRING:
+                        aliveCount = filterString(entryChecks[i][j], window, lengths, alive, aliveCount);
+                        break;
+                    default:
+                        aliveCount = filterFallback(i, j, data, inputs, alive, aliveCount, errors);
+                        break;
+                }
+                // The complete entry has been checked on the data
+                if ((j == 0) && (entryChecks[i][0].kind == CHECK_FALLBACK))
+                    break;
+            }
+            for (k = 0; k < aliveCount; k++)
+            {
+                best[alive[k]] = i;
+            }
+        }
+
+        identified = 0;
+        for (i = 0; i < count; i++)
+        {
+            if (best[i] == -1)
+                continue;
+            try
+            {
+                identifier.describeEntry(getInput(data, inputs, i), best[i], metadata[i]);
+                identified++;
+            } catch (IOException e)
+            {
+                if (errors != null)
+                    errors[i] = e;
+            } catch (RuntimeException e)
+            {
+                // The other resources of the batch are still described
+                if (errors != null)
+                    errors[i] = new IOException("Error: "+e.toString());
+            }
+        }
+        return identified;
+    }
+
+    private int filterNumeric(Check check, byte[] window, int[] lengths, int[] alive, int aliveCount)
+    {
+        MagicEntry entry = check.entry;
+        int end = check.offset + check.length;
+        int count = 0;
+        int index;
+        int p;
+        long v;
+        int k;
+
+        for (k = 0; k < aliveCount; k++)
+        {
+            index = alive[k];
+            if (lengths[index] < end)
+                continue;
+            p = index * windowLength + check.offset;
+            // The values are extended as when they are read by the engine
+            switch (entry.type)
+            {
+                case MagicEntry.TYPE_BYTE:
+                    v = window[p];
+                    break;
+                case MagicEntry.TYPE_LESHORT:
+                    v = (window[p] & 0xff) | ((window[p + 1] & 0xff) << 8);
+                    break;
+                case MagicEntry.TYPE_LELONG:
+                    v = (window[p] & 0xff) | ((window[p + 1] & 0xff) << 8) |
+                        ((window[p + 2] & 0xff) << 16) | ((window[p + 3] & 0xff) << 24);
+                    break;
+                case MagicEntry.TYPE_BESHORT:
+                    v = (short)(((window[p] & 0xff) << 8) | (window[p + 1] & 0xff));
+                    break;
+                default:
+                    v = ((window[p] & 0xff) << 24) | ((window[p + 1] & 0xff) << 16) |
+                        ((window[p + 2] & 0xff) << 8) | (window[p + 3] & 0xff);
+                    break;
+            }
+            v &= entry.andValue;
+            if (compare(entry.comparisonOperator, v, check.value))
+                alive[count++] = index;
+        }
+        return count;
+    }
+
+    private static boolean compare(char operator, long v, long value)
+    {
+        switch (operator)
+        {
+            case 'x':
+                return true;
+            case '=':
+                return v == value;
+            case '!':
+                return v != value;
+            case '>':
+                return v > value;
+            case '<':
+                return v < value;
+            case '&':
+                return (v & value) != 0;
+            case '^':
+                return (v ^ value) != 0;
+        }
+        return false;
+    }
+
+    private int filterString(Check check, byte[] window, int[] lengths, int[] alive, int aliveCount)
+    {
+        byte[] pattern = check.pattern;
+        boolean equal = (check.entry.comparisonOperator == '=');
+        int end = check.offset + check.length;
+        int count = 0;
+        int index;
+        int p;
+        int k;
+        int m;
+
+        for (k = 0; k < aliveCount; k++)
+        {
+            index = alive[k];
+            if (lengths[index] < end)
+                continue;
+            p = index * windowLength + check.offset;
+            m = 0;
+            if (pattern.length == check.length)
+            {
+                while ((m < pattern.length) && (window[p + m] == pattern[m]))
+                {
+                    m++;
+                }
+            }
+            if ((m == pattern.length) == equal)
+                alive[count++] = index;
+        }
+        return count;
+    }
+
+    /** Does a check on the complete data of each resource. */
+    private int filterFallback(int entryIndex, int checkIndex, byte[][] data, RangeDataInput[] inputs,
+        int[] alive, int aliveCount, IOException[] errors)
+    {
+        RangeDataInput input;
+        boolean match;
+        int count = 0;
+        int index;
+        int k;
+
+        for (k = 0; k < aliveCount; k++)
+        {
+            index = alive[k];
+            input = getInput(data, inputs, index);
+            try
+            {
+                if (checkIndex == 0)
+                    match = identifier.matchEntry(input, entryIndex);
+                else
+                    match = identifier.matchContinuation(input, entryChecks[entryIndex][checkIndex].entry);
+            } catch (IOException e)
+            {
+                if (errors != null)
+                    errors[index] = e;
+                match = false;
+            } catch (RuntimeException e)
+            {
+                if (errors != null)
+                    errors[index] = new IOException("Error: "+e.toString());
+                match = false;
+            }
+            if (match)
+                alive[count++] = index;
+        }
+        return count;
+    }
+
+    private static RangeDataInput getInput(byte[][] data, RangeDataInput[] inputs, int index)
+    {
+        if (inputs[index] == null)
+            inputs[index] = new RangeDataInput(data[index], 0, data[index].length);
+        return inputs[index];
+    }
+
+    /** How a check is done for an entry. */
+    private static class Check
+    {
+        MagicEntry entry;
+        int kind;
+        int offset;
+        int length;
+        /** Numeric value compared with */
+        long value;
+        /** String compared with */
+        byte[] pattern;
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,53 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+
+/** Thrown when a magic entry needs data that has not been made
+ *  available yet by a {@link RangeDataInput}. Contrary to an
+ *  {@link java.io.EOFException}, this does not mean that the entry
+ *  does not match, only that it cannot be decided yet.
+ */
+class DataUnavailableException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  /** This is the position of the first byte that is missing. If
+   *  {@link #fromEnd} is true, this is a negative offset relative
+   *  to the end of the data, whose length is not known yet.
+   */
+  public long position;
+
+  /** This is the number of bytes that are needed from position. */
+  public int length;
+
+  /** Indicates that the position is relative to the end of the data. */
+  public boolean fromEnd;
+
+  public DataUnavailableException(long position, int length, boolean fromEnd)
+  {
+      super("Data not available at offset "+Long.toString(position));
+      this.position = position;
+      this.length = length;
+      this.fromEnd = fromEnd;
+  }
+}
+
+/*
+
+  $Log$
+
+*/
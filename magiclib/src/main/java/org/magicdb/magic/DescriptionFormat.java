@@ -0,0 +1,286 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+/** Description of a magic entry compiled once into the parts that are
+ *  copied and the values that are formatted, so that the additional
+ *  information of a match is formatted without parsing the description
+ *  again.
+ *
+ *  <p>Only the conversions used by the magic database are compiled:
+ *  %d and %x for numeric values, %s and %.Ns for strings, and %%. The
+ *  result is the same as formatting with {@link PrintfFormat}, which
+ *  is still used for other descriptions, or if the type of the value
+ *  does not correspond to the conversions.</p>
+ *
+ *  <p>An instance can be used by several threads at the same time.</p>
+ */
+class DescriptionFormat
+{
+    /** Copies the literal text */
+    private static final byte PART_LITERAL = 0;
+    /** Formats a numeric value in decimal */
+    private static final byte PART_DECIMAL = 1;
+    /** Formats a numeric value in hexadecimal */
+    private static final byte PART_HEXADECIMAL = 2;
+    /** Formats a string value, truncated to the precision if set */
+    private static final byte PART_STRING = 3;
+
+    private String description;
+    /** Indicates that the description could be compiled */
+    private boolean compiled;
+    private byte[] partTypes;
+    private String[] literals;
+    /** The maximum number of characters of a string value, or -1 */
+    private int[] precisions;
+    private int partCount;
+    private boolean numeric;
+    private boolean string;
+
+    /** Compiles the specified description.
+     *
+     * @param description The description of the entry, as given to
+     *   {@link PrintfFormat#PrintfFormat(String)}.
+     */
+    public DescriptionFormat(String description)
+    {
+        super();
+        this.description = description;
+        if (description != null)
+            compiled = compile(description);
+    }
+
+    /** Splits the description into parts as PrintfFormat does, and returns
+     *  false if it contains a conversion that is not compiled.
+     */
+    private boolean compile(String s)
+    {
+        int start;
+        int end;
+        int precision;
+        int i;
+        char c;
+
+        partTypes = new byte[4];
+        literals = new String[4];
+        precisions = new int[4];
+        start = 0;
+        while (start < s.length())
+        {
+            end = s.indexOf('%', start);
+            if (end == -1)
+                end = s.length();
+            if (end > start)
+                addPart(PART_LITERAL, s.substring(start, end), -1);
+            if (end == s.length())
+                break;
+            // The conversion ends at the first conversion character
+            for (i = end + 1; i < s.length(); i++)
+            {
+                c = s.charAt(i);
+                if ("idfgGoxXeEcs%".indexOf(c) != -1)
+                    break;
+            }
+            if (i == s.length())
+                return false;
+            c = s.charAt(i);
+            if (i == end + 1)
+            {
+                if (c == 'd')
+                    addPart(PART_DECIMAL, null, -1);
+                else
+                if (c == 'x')
+                    addPart(PART_HEXADECIMAL, null, -1);
+                else
+                if (c == 's')
+                    addPart(PART_STRING, null, -1);
+                else
+                if (c == '%')
+                    addPart(PART_LITERAL, "%", -1);
+                else
+                    return false;
+            } else
+            {
+                // Only the precision of strings, as in %.20s
+                if ((c != 's') || (s.charAt(end + 1) != '.') || (i == end + 2))
+                    return false;
+                precision = 0;
+                for (end = end + 2; end < i; end++)
+                {
+                    if ((s.charAt(end) < '0') || (s.charAt(end) > '9'))
+                        return false;
+                    precision = precision * 10 + (s.charAt(end) - '0');
+                }
+                addPart(PART_STRING, null, precision);
+            }
+            start = i + 1;
+        }
+        return true;
+    }
+
+    private void addPart(byte type, String literal, int precision)
+    {
+        byte[] types;
+        String[] strings;
+        int[] values;
+
+        if (partCount == partTypes.length)
+        {
+            types = new byte[partCount * 2];
+            strings = new String[partCount * 2];
+            values = new int[partCount * 2];
+            System.arraycopy(partTypes, 0, types, 0, partCount);
+            System.arraycopy(literals, 0, strings, 0, partCount);
+            System.arraycopy(precisions, 0, values, 0, partCount);
+            partTypes = types;
+            literals = strings;
+            precisions = values;
+        }
+        partTypes[partCount] = type;
+        literals[partCount] = literal;
+        precisions[partCount] = precision;
+        partCount++;
+        if ((type == PART_DECIMAL) || (type == PART_HEXADECIMAL))
+            numeric = true;
+        else
+        if (type == PART_STRING)
+            string = true;
+    }
+
+    /** Returns true if the description is compiled for a value of the
+     *  specified kind, so that its parts can be used.
+     *
+     * @param numericValue true for a numeric value, false for a string.
+     */
+    public boolean isCompiled(boolean numericValue)
+    {
+        if (numericValue)
+            return compiled && !string;
+        return compiled && !numeric;
+    }
+
+    /** Returns the number of parts of the compiled description. */
+    public int getPartCount()
+    {
+        return partCount;
+    }
+
+    /** Returns the text of a part of the compiled description, or null
+     *  if the part is a formatted value.
+     */
+    public String getLiteral(int index)
+    {
+        if (partTypes[index] == PART_LITERAL)
+            return literals[index];
+        return null;
+    }
+
+    /** Returns the formatted value of a part of the compiled description.
+     *
+     * @param index The index of a part for which {@link #getLiteral(int)}
+     *   returns null.
+     * @param value The value read by the entry.
+     */
+    public String formatPart(int index, long value)
+    {
+        if (partTypes[index] == PART_HEXADECIMAL)
+            return Integer.toHexString((int)value);
+        return Integer.toString((int)value);
+    }
+
+    /** Returns the formatted value of a part of the compiled description.
+     *
+     * @param index The index of a part for which {@link #getLiteral(int)}
+     *   returns null.
+     * @param value The value read by the entry.
+     */
+    public String formatPart(int index, String value)
+    {
+        if ((precisions[index] == -1) || (precisions[index] >= value.length()))
+            return value;
+        return value.substring(0, precisions[index]);
+    }
+
+    /** Appends the description formatted with a numeric value.
+     *
+     * @param buffer The buffer where the result is appended.
+     * @param value The value read by the entry.
+     */
+    public void format(StringBuffer buffer, long value)
+    {
+        int i;
+
+        if (!compiled || string)
+        {
+            buffer.append(new PrintfFormat(description).sprintf(value));
+            return;
+        }
+        for (i = 0; i < partCount; i++)
+        {
+            switch (partTypes[i])
+            {
+                case PART_LITERAL:
+                    buffer.append(literals[i]);
+                    break;
+                // Without the l modifier, the value is formatted as an int
+                case PART_DECIMAL:
+                    buffer.append((int)value);
+                    break;
+                case PART_HEXADECIMAL:
+                    buffer.append(Integer.toHexString((int)value));
+                    break;
+            }
+        }
+    }
+
+    /** Appends the description formatted with a string value.
+     *
+     * @param buffer The buffer where the result is appended.
+     * @param value The value read by the entry.
+     */
+    public void format(StringBuffer buffer, String value)
+    {
+        int i;
+        int j;
+
+        if (!compiled || numeric)
+        {
+            buffer.append(new PrintfFormat(description).sprintf(value));
+            return;
+        }
+        for (i = 0; i < partCount; i++)
+        {
+            if (partTypes[i] == PART_LITERAL)
+                buffer.append(literals[i]);
+            else
+            if ((precisions[i] == -1) || (precisions[i] >= value.length()))
+                buffer.append(value);
+            else
+            {
+                for (j = 0; j < precisions[i]; j++)
+                {
+                    buffer.append(value.charAt(j));
+                }
+            }
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,423 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+/** Arithmetic expression of a property value, compiled once so that it
+ *  can be evaluated without parsing it again.
+ *
+ *  <p>An expression contains decimal integer operands, the binary
+ *  operators + - * / with the usual precedence, unary minus and plus,
+ *  and parentheses. Spaces are not allowed. An expression can also
+ *  contain slots, which are operands whose value is given when the
+ *  expression is evaluated, as the formatted value of an additional
+ *  information entry.</p>
+ *
+ *  <p>An instance can be used by several threads at the same time.</p>
+ */
+class Expression
+{
+    private static final byte NODE_CONSTANT = 0;
+    private static final byte NODE_SLOT = 1;
+    private static final byte NODE_ADD = 2;
+    private static final byte NODE_SUBTRACT = 3;
+    private static final byte NODE_MULTIPLY = 4;
+    private static final byte NODE_DIVIDE = 5;
+    private static final byte NODE_NEGATE = 6;
+
+    /** Token returned at the end of the expression */
+    private static final int TOKEN_END = -1;
+    /** Token returned for a slot */
+    private static final int TOKEN_SLOT = -2;
+
+    private byte type;
+    private Expression left;
+    private Expression right;
+    /** The value of a constant, when evaluated as an integer */
+    private int intValue;
+    /** Indicates that the constant does not fit in an integer */
+    private boolean intOverflow;
+    /** The value of a constant, when evaluated as a float */
+    private float floatValue;
+    /** The index of the slot */
+    private int slot;
+
+    private Expression(byte type)
+    {
+        super();
+        this.type = type;
+    }
+
+    /** Compiles an expression.
+     *
+     * @param s The expression.
+     * @throws IllegalArgumentException If the expression is not valid.
+     */
+    public static Expression compile(String s)
+    {
+        return compile(new Object[] { s });
+    }
+
+    /** Compiles an expression made of several pieces.
+     *
+     * @param pieces The pieces of the expression, either a String
+     *   containing part of the expression, or an Integer containing
+     *   the index of a slot.
+     * @throws IllegalArgumentException If the expression is not valid.
+     */
+    public static Expression compile(Object[] pieces)
+    {
+        Parser parser = new Parser(pieces);
+        Expression expression = parser.parseSum();
+        if (parser.peek() != TOKEN_END)
+            throw new IllegalArgumentException("Error: Invalid expression");
+        return expression;
+    }
+
+    /** Evaluates an expression as an integer.
+     *
+     * @throws IllegalArgumentException If the expression is not valid.
+     * @throws ArithmeticException In case of division by zero.
+     */
+    public static int evaluateInt(String s)
+    {
+        return compile(s).evaluateInt((String[])null);
+    }
+
+    /** Evaluates an expression as a float.
+     *
+     * @throws IllegalArgumentException If the expression is not valid.
+     */
+    public static float evaluateFloat(String s)
+    {
+        return compile(s).evaluateFloat((String[])null);
+    }
+
+    /** Returns true if all the slot values are operands, which is an
+     *  optional minus sign followed by digits. The expression then has
+     *  the same value as the text of the expression with the slot values.
+     */
+    public boolean isEvaluable(String[] slots)
+    {
+        String s;
+        int i;
+
+        switch (type)
+        {
+            case NODE_CONSTANT:
+                return true;
+            case NODE_SLOT:
+                s = slots[slot];
+                i = 0;
+                if ((s.length() > 0) && (s.charAt(0) == '-'))
+                    i++;
+                if (i == s.length())
+                    return false;
+                for (; i < s.length(); i++)
+                {
+                    if ((s.charAt(i) < '0') || (s.charAt(i) > '9'))
+                        return false;
+                }
+                return true;
+            case NODE_NEGATE:
+                return left.isEvaluable(slots);
+            default:
+                return left.isEvaluable(slots) && right.isEvaluable(slots);
+        }
+    }
+
+    /** Returns true if evaluating the expression as an integer can fail
+     *  with the slot values, which is the case if it contains a division,
+     *  or an operand that might not fit in an integer.
+     *
+     * @param slots The values of the slots, for which
+     *   {@link #isEvaluable(String[])} returns true.
+     */
+    public boolean canFailInt(String[] slots)
+    {
+        String s;
+
+        switch (type)
+        {
+            case NODE_CONSTANT:
+                return intOverflow;
+            case NODE_SLOT:
+                s = slots[slot];
+                if (s.charAt(0) == '-')
+                    return s.length() > 10;
+                return s.length() > 9;
+            case NODE_DIVIDE:
+                return true;
+            case NODE_NEGATE:
+                return left.canFailInt(slots);
+            default:
+                return left.canFailInt(slots) || right.canFailInt(slots);
+        }
+    }
+
+    /** Evaluates the expression as an integer.
+     *
+     * @param slots The values of the slots, for which
+     *   {@link #isEvaluable(String[])} returns true.
+     * @throws IllegalArgumentException If an operand does not fit in an
+     *   integer.
+     * @throws ArithmeticException In case of division by zero.
+     */
+    public int evaluateInt(String[] slots)
+    {
+        switch (type)
+        {
+            case NODE_CONSTANT:
+                if (intOverflow)
+                    throw new IllegalArgumentException("Error: Invalid numeric value");
+                return intValue;
+            case NODE_SLOT:
+                return parseInt(slots[slot]);
+            case NODE_ADD:
+                return left.evaluateInt(slots) + right.evaluateInt(slots);
+            case NODE_SUBTRACT:
+                return left.evaluateInt(slots) - right.evaluateInt(slots);
+            case NODE_MULTIPLY:
+                return left.evaluateInt(slots) * right.evaluateInt(slots);
+            case NODE_DIVIDE:
+                return left.evaluateInt(slots) / right.evaluateInt(slots);
+            default:
+                return -left.evaluateInt(slots);
+        }
+    }
+
+    /** Evaluates the expression as a float.
+     *
+     * @param slots The values of the slots, for which
+     *   {@link #isEvaluable(String[])} returns true.
+     */
+    public float evaluateFloat(String[] slots)
+    {
+        switch (type)
+        {
+            case NODE_CONSTANT:
+                return floatValue;
+            case NODE_SLOT:
+                return parseFloat(slots[slot]);
+            case NODE_ADD:
+                return left.evaluateFloat(slots) + right.evaluateFloat(slots);
+            case NODE_SUBTRACT:
+                return left.evaluateFloat(slots) - right.evaluateFloat(slots);
+            case NODE_MULTIPLY:
+                return left.evaluateFloat(slots) * right.evaluateFloat(slots);
+            case NODE_DIVIDE:
+                return left.evaluateFloat(slots) / right.evaluateFloat(slots);
+            default:
+                return -left.evaluateFloat(slots);
+        }
+    }
+
+    /** Parses a slot value, the minus sign being applied to the digits
+     *  as in the text of the expression.
+     */
+    private static int parseInt(String s)
+    {
+        long value = 0;
+        int i = 0;
+
+        if (s.charAt(0) == '-')
+            i++;
+        for (; i < s.length(); i++)
+        {
+            value = value * 10 + (s.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Error: Invalid numeric value");
+        }
+        if (s.charAt(0) == '-')
+            return -(int)value;
+        return (int)value;
+    }
+
+    private static float parseFloat(String s)
+    {
+        int start = (s.charAt(0) == '-') ? 1 : 0;
+        float value;
+        int digits;
+        int i;
+
+        // Digits that fit in an integer are converted exactly
+        if (s.length() - start > 9)
+            value = Float.parseFloat(s.substring(start));
+        else
+        {
+            digits = 0;
+            for (i = start; i < s.length(); i++)
+            {
+                digits = digits * 10 + (s.charAt(i) - '0');
+            }
+            value = (float)digits;
+        }
+        if (start == 0)
+            return value;
+        return -value;
+    }
+
+    /** Recursive descent parser of an expression. */
+    private static class Parser
+    {
+        private Object[] pieces;
+        private int pieceIndex;
+        private int position;
+
+        Parser(Object[] pieces)
+        {
+            this.pieces = pieces;
+            skipEmpty();
+        }
+
+        /** Skips the empty pieces, so that the current piece is a slot
+         *  or has a character at the current position.
+         */
+        private void skipEmpty()
+        {
+            while ((pieceIndex < pieces.length) && (pieces[pieceIndex] instanceof String) &&
+                (position >= ((String)pieces[pieceIndex]).length()))
+            {
+                pieceIndex++;
+                position = 0;
+            }
+        }
+
+        /** Returns the current character, or one of the TOKEN_XXX constants. */
+        int peek()
+        {
+            if (pieceIndex == pieces.length)
+                return TOKEN_END;
+            if (pieces[pieceIndex] instanceof Integer)
+                return TOKEN_SLOT;
+            return ((String)pieces[pieceIndex]).charAt(position);
+        }
+
+        private void next()
+        {
+            if (pieces[pieceIndex] instanceof Integer)
+                pieceIndex++;
+            else
+                position++;
+            skipEmpty();
+        }
+
+        /** sum := product (('+' | '-') product)* */
+        Expression parseSum()
+        {
+            Expression expression = parseProduct();
+            Expression node;
+            int c;
+
+            while (((c = peek()) == '+') || (c == '-'))
+            {
+                next();
+                node = new Expression((c == '+') ? NODE_ADD : NODE_SUBTRACT);
+                node.left = expression;
+                node.right = parseProduct();
+                expression = node;
+            }
+            return expression;
+        }
+
+        /** product := unary (('*' | '/') unary)* */
+        private Expression parseProduct()
+        {
+            Expression expression = parseUnary();
+            Expression node;
+            int c;
+
+            while (((c = peek()) == '*') || (c == '/'))
+            {
+                next();
+                node = new Expression((c == '*') ? NODE_MULTIPLY : NODE_DIVIDE);
+                node.left = expression;
+                node.right = parseUnary();
+                expression = node;
+            }
+            return expression;
+        }
+
+        /** unary := ('-' | '+') unary | operand */
+        private Expression parseUnary()
+        {
+            Expression node;
+            int c = peek();
+
+            if (c == '-')
+            {
+                next();
+                node = new Expression(NODE_NEGATE);
+                node.left = parseUnary();
+                return node;
+            }
+            if (c == '+')
+            {
+                next();
+                return parseUnary();
+            }
+            return parseOperand();
+        }
+
+        /** operand := digits | slot | '(' sum ')' */
+        private Expression parseOperand()
+        {
+            StringBuffer digits;
+            Expression node;
+            int c = peek();
+
+            if (c == TOKEN_SLOT)
+            {
+                node = new Expression(NODE_SLOT);
+                node.slot = ((Integer)pieces[pieceIndex]).intValue();
+                next();
+                return node;
+            }
+            if (c == '(')
+            {
+                next();
+                node = parseSum();
+                if (peek() != ')')
+                    throw new IllegalArgumentException("Error: Missing ) in expression");
+                next();
+                return node;
+            }
+            if ((c < '0') || (c > '9'))
+                throw new IllegalArgumentException("Error: Invalid expression");
+            digits = new StringBuffer();
+            while (((c = peek()) >= '0') && (c <= '9'))
+            {
+                digits.append((char)c);
+                next();
+            }
+            node = new Expression(NODE_CONSTANT);
+            node.floatValue = Float.parseFloat(digits.toString());
+            try
+            {
+                node.intValue = Integer.parseInt(digits.toString());
+            } catch (NumberFormatException e)
+            {
+                node.intOverflow = true;
+            }
+            return node;
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
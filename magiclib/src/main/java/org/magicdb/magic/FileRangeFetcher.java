@@ -0,0 +1,108 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+/** Range fetcher over a local file, which can add a delay to each
+ *  request to simulate the latency of a remote storage. It counts the
+ *  requests and the bytes read, so that the reads of a
+ *  {@link ReadPlanner} can be checked.
+ */
+public class FileRangeFetcher implements RangeFetcher
+{
+    private RandomAccessFile file;
+    /** Delay of each request in milliseconds */
+    private long latency;
+    private int requestCount;
+    private long bytesFetched;
+
+    /** Creates a fetcher without latency. */
+    public FileRangeFetcher(File file) throws IOException
+    {
+        this(file, 0);
+    }
+
+    /** Creates a fetcher.
+     *
+     * @param file The file to read.
+     * @param latency The delay added to each request in milliseconds.
+     */
+    public FileRangeFetcher(File file, long latency) throws IOException
+    {
+        super();
+        this.file = new RandomAccessFile(file, "r");
+        this.latency = latency;
+    }
+
+    public synchronized long getLength() throws IOException
+    {
+        request();
+        return file.length();
+    }
+
+    public synchronized void fetch(long[] positions, byte[][] buffers, int count) throws IOException
+    {
+        int i;
+        request();
+        for (i = 0; i < count; i++)
+        {
+            file.seek(positions[i]);
+            file.readFully(buffers[i]);
+            bytesFetched += buffers[i].length;
+        }
+    }
+
+    private void request() throws IOException
+    {
+        requestCount++;
+        if (latency <= 0)
+            return;
+        try
+        {
+            Thread.sleep(latency);
+        } catch (InterruptedException e)
+        {
+            throw new InterruptedIOException("Error: Interrupted while waiting");
+        }
+    }
+
+    /** Returns the number of requests done, including the length requests. */
+    public synchronized int getRequestCount()
+    {
+        return requestCount;
+    }
+
+    /** Returns the number of bytes read. */
+    public synchronized long getBytesFetched()
+    {
+        return bytesFetched;
+    }
+
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
+
+/*
+
+  $Log$
+
+*/
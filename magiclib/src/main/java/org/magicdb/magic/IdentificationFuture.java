@@ -0,0 +1,170 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Result of an identification that is done asynchronously. The
+ *  result can be waited for, or a listener can be notified once the
+ *  identification is complete.
+ */
+public class IdentificationFuture
+{
+    private boolean done;
+    private Properties result;
+    private IOException exception;
+    private LinkedList listeners;
+    /** Object associated with the identification by the caller */
+    private Object source;
+
+    IdentificationFuture(Object source)
+    {
+        super();
+        this.source = source;
+        listeners = new LinkedList();
+    }
+
+    /** Completes the identification and notifies the listeners.
+     *
+     * @param result The result, or null if the resource was not identified.
+     * @param exception The error that stopped the identification, or null.
+     */
+    void complete(Properties result, IOException exception)
+    {
+        IdentificationListener[] toNotify;
+        int i;
+
+        synchronized (this)
+        {
+            if (done)
+                return;
+            this.result = result;
+            this.exception = exception;
+            done = true;
+            notifyAll();
+            toNotify = (IdentificationListener[])listeners.toArray(new IdentificationListener[listeners.size()]);
+            listeners.clear();
+        }
+        for (i = 0; i < toNotify.length; i++)
+        {
+            notifyListener(toNotify[i]);
+        }
+    }
+
+    private void notifyListener(IdentificationListener listener)
+    {
+        try
+        {
+            listener.identificationCompleted(this);
+        } catch (RuntimeException e)
+        {
+            // A failing listener must not stop the thread that completes
+            // the identifications.
+        }
+    }
+
+    /** Returns the object that is identified, as passed when the
+     *  identification was requested (a File, a FileChannel, ...).
+     */
+    public Object getSource()
+    {
+        return source;
+    }
+
+    /** Returns true if the identification is complete. */
+    public synchronized boolean isDone()
+    {
+        return done;
+    }
+
+    /** Waits until the identification is complete. */
+    public synchronized void waitFor() throws InterruptedException
+    {
+        while (!done)
+        {
+            wait();
+        }
+    }
+
+    /** Waits until the identification is complete, or until the
+     *  timeout has elapsed.
+     *
+     * @param timeout The maximum time to wait in milliseconds.
+     * @return true if the identification is complete.
+     */
+    public synchronized boolean waitFor(long timeout) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while ((!done) && (remaining > 0))
+        {
+            wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+        return done;
+    }
+
+    /** Adds a listener notified once the identification is complete. If it
+     *  is already complete, the listener is notified immediately by the
+     *  calling thread.
+     */
+    public void addListener(IdentificationListener listener)
+    {
+        synchronized (this)
+        {
+            if (!done)
+            {
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /** Returns the error that stopped the identification, or null. */
+    public synchronized IOException getException()
+    {
+        return exception;
+    }
+
+    /** Fills the property table with the result of the identification.
+     *
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException The error that stopped the identification.
+     * @throws IllegalStateException If the identification is not complete.
+     */
+    public synchronized boolean loadMetadata(Properties metadata) throws IOException
+    {
+        if (!done)
+            throw new IllegalStateException("Error: Identification is not complete");
+        if (exception != null)
+            throw exception;
+        if (result == null)
+            return false;
+        IdentifierMagicDB.copyProperties(result, metadata);
+        return true;
+    }
+}
+
+/*
+
+  $Log$
+
+*/
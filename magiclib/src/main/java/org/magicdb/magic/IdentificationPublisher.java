@@ -0,0 +1,258 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/** Publishes the identification results of a sequence of sources to a
+ *  subscriber, with back pressure. Sources are only taken from the
+ *  iterator when the subscriber has requested results, and the number
+ *  of sources being identified at the same time is limited, so that
+ *  nothing is queued without bounds whatever the speed of the
+ *  subscriber.
+ *
+ *  <p>The sources can be {@link File}, {@link FileChannel},
+ *  {@link ByteBuffer} or byte array objects. The results are published
+ *  in the order in which the identifications complete, and
+ *  {@link IdentificationFuture#getSource()} returns the corresponding
+ *  source. The identifications are done by an {@link AsynchronousIdentifier},
+ *  which can be shared by several publishers.</p>
+ */
+public class IdentificationPublisher
+{
+    private AsynchronousIdentifier identifier;
+    private Iterator sources;
+    private int maxInFlight;
+    private IdentificationSubscriber subscriber;
+    private IdentificationListener listener;
+    /** Lock used so that the subscriber is called by one thread at a time */
+    private Object subscriberLock;
+
+    /** Number of results requested and not published yet */
+    private long requested;
+    /** Number of sources being identified */
+    private int inFlight;
+    /** Indicates that the iterator has no more sources */
+    private boolean sourcesDone;
+    private Throwable failure;
+    private boolean cancelled;
+    private boolean terminated;
+
+    /** Creates a publisher.
+     *
+     * @param identifier The identifier used for the identifications.
+     * @param sources The iterator over the sources to identify. It is
+     *   only used by one thread at a time.
+     * @param maxInFlight The maximum number of sources being identified
+     *   at the same time.
+     */
+    public IdentificationPublisher(AsynchronousIdentifier identifier, Iterator sources, int maxInFlight)
+    {
+        super();
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Error: Maximum number of sources in flight must be at least 1");
+        this.identifier = identifier;
+        this.sources = sources;
+        this.maxInFlight = maxInFlight;
+        subscriberLock = new Object();
+        listener = new IdentificationListener()
+        {
+            public void identificationCompleted(IdentificationFuture future)
+            {
+                publish(future);
+            }
+        };
+    }
+
+    /** Subscribes the subscriber that receives the results. Only one
+     *  subscriber can be subscribed.
+     */
+    public void subscribe(IdentificationSubscriber subscriber)
+    {
+        synchronized (this)
+        {
+            if (this.subscriber != null)
+                throw new IllegalStateException("Error: Publisher already has a subscriber");
+            this.subscriber = subscriber;
+        }
+        synchronized (subscriberLock)
+        {
+            subscriber.onSubscribe(this);
+        }
+    }
+
+    /** Requests additional results. Sources are identified until this
+     *  number of results has been published.
+     *
+     * @param n The number of additional results, which must be positive.
+     */
+    public void request(long n)
+    {
+        if (n <= 0)
+            throw new IllegalArgumentException("Error: Number of requested results must be positive");
+        synchronized (this)
+        {
+            requested += n;
+            if (requested < 0)
+                requested = Long.MAX_VALUE;
+        }
+        startSources();
+    }
+
+    /** Stops publishing results. The sources being identified are
+     *  completed, but their results are not published.
+     */
+    public void cancel()
+    {
+        synchronized (this)
+        {
+            cancelled = true;
+        }
+    }
+
+    /** Starts identifying sources while results are requested and the
+     *  maximum number of sources in flight is not reached.
+     */
+    private void startSources()
+    {
+        Object source;
+        IdentificationFuture future;
+
+        while (true)
+        {
+            synchronized (this)
+            {
+                if (cancelled || sourcesDone)
+                    break;
+                if ((inFlight >= maxInFlight) || (requested <= inFlight))
+                {
+                    // Once no source is in flight, the end of the sources
+                    // is signalled even if no more results are requested
+                    if ((inFlight == 0) && !hasMoreSources())
+                        break;
+                    return;
+                }
+                if (!hasMoreSources())
+                    break;
+                try
+                {
+                    source = sources.next();
+                } catch (RuntimeException e)
+                {
+                    failure = e;
+                    sourcesDone = true;
+                    break;
+                }
+                inFlight++;
+            }
+            future = identifier.identifySource(source);
+            future.addListener(listener);
+        }
+        terminate();
+    }
+
+    /** Returns true if the iterator has more sources. Otherwise, or if
+     *  the iterator fails, the sources are done.
+     */
+    private boolean hasMoreSources()
+    {
+        try
+        {
+            if (sources.hasNext())
+                return true;
+        } catch (RuntimeException e)
+        {
+            failure = e;
+        }
+        sourcesDone = true;
+        return false;
+    }
+
+    private void publish(IdentificationFuture future)
+    {
+        boolean publish;
+        synchronized (this)
+        {
+            publish = !cancelled;
+        }
+        try
+        {
+            if (publish)
+            {
+                synchronized (subscriberLock)
+                {
+                    subscriber.onNext(future);
+                }
+            }
+        } catch (RuntimeException e)
+        {
+            subscriberFailed(e);
+        } finally
+        {
+            synchronized (this)
+            {
+                inFlight--;
+                requested--;
+            }
+        }
+        startSources();
+    }
+
+    /** Stops publishing results when the subscriber fails, and signals
+     *  the failure to the subscriber.
+     */
+    private void subscriberFailed(RuntimeException e)
+    {
+        synchronized (this)
+        {
+            cancelled = true;
+            if (terminated)
+                return;
+            terminated = true;
+        }
+        synchronized (subscriberLock)
+        {
+            subscriber.onError(e);
+        }
+    }
+
+    /** Signals the end of the results once all the sources are published. */
+    private void terminate()
+    {
+        synchronized (this)
+        {
+            if (cancelled || terminated || (inFlight > 0) || !sourcesDone)
+                return;
+            terminated = true;
+        }
+        synchronized (subscriberLock)
+        {
+            if (failure != null)
+                subscriber.onError(failure);
+            else
+                subscriber.onComplete();
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,573 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.util.Properties;
+
+/** Result of the identification of a resource, with the properties
+ *  stored in typed fields instead of a property table.
+ *
+ *  <p>An instance can be reused for several identifications, each
+ *  identification calls {@link #reset()} first. The properties that are
+ *  not set return null, or false for the has methods of the numeric
+ *  properties. {@link #toProperties(Properties)} fills a property table
+ *  in the same way as {@link IdentifierMagicDB#loadMetadata(java.io.DataInput, Properties)}.</p>
+ *
+ *  <p>The properties computed from the values read in the resource,
+ *  such as the description or the sampling rate, are only computed when
+ *  they are first accessed, unless computing them can fail. The data of
+ *  the resource is not needed anymore at that time.</p>
+ *
+ *  <p>An instance must not be used by several threads at the same time.</p>
+ */
+public class IdentificationResult
+{
+    /** The description of the format */
+    public static final int PROPERTY_COMMENT = 0x0001;
+    /** The file suffix */
+    public static final int PROPERTY_SUFFIX = 0x0002;
+    /** The format identifier */
+    public static final int PROPERTY_FORMAT_ID = 0x0004;
+    /** The MIME type */
+    public static final int PROPERTY_MIME = 0x0008;
+    /** The title */
+    public static final int PROPERTY_TITLE = 0x0010;
+    /** The creator */
+    public static final int PROPERTY_CREATOR = 0x0020;
+    /** The image resolution */
+    public static final int PROPERTY_RESOLUTION = 0x0040;
+    /** The number of audio channels */
+    public static final int PROPERTY_CHANNELS = 0x0080;
+    /** The sampling rate */
+    public static final int PROPERTY_SAMPLING_RATE = 0x0100;
+    /** The frame rate */
+    public static final int PROPERTY_FRAME_RATE = 0x0200;
+    /** The properties which have no field */
+    public static final int PROPERTY_OTHER = 0x0400;
+    /** All the properties */
+    public static final int PROPERTY_ALL = 0x07FF;
+    /** The number of PROPERTY_XXX constants, except PROPERTY_ALL */
+    static final int PROPERTY_COUNT = 11;
+
+    /** The properties that are computed, a combination of PROPERTY_XXX */
+    private int requestedProperties = PROPERTY_ALL;
+    /** The templates of the properties whose value is only computed when
+     *  they are accessed, indexed by the bit of their PROPERTY_XXX constant,
+     *  or null if the property is computed.
+     */
+    private PropertyTemplate[] deferredTemplates;
+    /** The item of the template which gives each deferred property */
+    private int[] deferredItems;
+    /** The slot values of each deferred property */
+    private String[][] deferredSlots;
+    /** The number of deferred properties */
+    private int deferredCount;
+    private boolean identified;
+    private int lineNumber;
+    private int score;
+
+    private String comment;
+    private String suffix;
+    private String formatId;
+    private String mimeType;
+    private String title;
+    private String creator;
+    private String resolution;
+    private int channels;
+    private boolean channelsSet;
+    private int samplingRate;
+    private boolean samplingRateSet;
+    private float frameRate;
+    private boolean frameRateSet;
+
+    /** The properties that have no field */
+    private String[] otherKeys;
+    private String[] otherValues;
+    private int otherCount;
+
+    /** Creates an empty result. */
+    public IdentificationResult()
+    {
+        super();
+        reset();
+    }
+
+    /** Sets the properties that are computed by the identification, the
+     *  others are not set. The additional information entries of the
+     *  magic database that cannot change the requested properties are
+     *  then not evaluated. The requested properties are the same as
+     *  when all properties are computed, except when a title or other
+     *  text read from the resource contains the characters that delimit
+     *  the properties in the description. The requested properties are
+     *  kept by {@link #reset()}.
+     *
+     * @param properties A combination of the PROPERTY_XXX constants.
+     */
+    public void setRequestedProperties(int properties)
+    {
+        requestedProperties = properties & PROPERTY_ALL;
+    }
+
+    /** Returns the properties that are computed by the identification,
+     *  a combination of the PROPERTY_XXX constants.
+     */
+    public int getRequestedProperties()
+    {
+        return requestedProperties;
+    }
+
+    /** Returns true if the property, one of the PROPERTY_XXX constants,
+     *  is computed by the identification.
+     */
+    boolean isRequested(int property)
+    {
+        return (requestedProperties & property) != 0;
+    }
+
+    /** Returns the PROPERTY_XXX constant of a property name. */
+    static int getPropertyFlag(String key)
+    {
+        if (key.equals(IdentifierMagicDB.COMMENT_KEY))
+            return PROPERTY_COMMENT;
+        if (key.equals(IdentifierMagicDB.FILE_SUFFIX_KEY))
+            return PROPERTY_SUFFIX;
+        if (key.equals(IdentifierMagicDB.FFID_KEY))
+            return PROPERTY_FORMAT_ID;
+        if (key.equals(IdentifierMagicDB.MIME_KEY))
+            return PROPERTY_MIME;
+        if (key.equals(IdentifierMagicDB.TITLE_KEY))
+            return PROPERTY_TITLE;
+        if (key.equals(IdentifierMagicDB.AUTHOR_KEY))
+            return PROPERTY_CREATOR;
+        if (key.equals(IdentifierMagicDB.IMAGE_SIZE_KEY))
+            return PROPERTY_RESOLUTION;
+        if (key.equals(IdentifierMagicDB.AUDIO_CHANNELS_KEY))
+            return PROPERTY_CHANNELS;
+        if (key.equals(IdentifierMagicDB.SAMPLING_RATE_KEY))
+            return PROPERTY_SAMPLING_RATE;
+        if (key.equals(IdentifierMagicDB.FRAME_RATE_KEY))
+            return PROPERTY_FRAME_RATE;
+        return PROPERTY_OTHER;
+    }
+
+    /** Clears the result so that the instance can be reused. */
+    public void reset()
+    {
+        int i;
+
+        identified = false;
+        lineNumber = -1;
+        score = 0;
+        comment = null;
+        suffix = null;
+        formatId = null;
+        mimeType = null;
+        title = null;
+        creator = null;
+        resolution = null;
+        channelsSet = false;
+        samplingRateSet = false;
+        frameRateSet = false;
+        for (i = 0; i < otherCount; i++)
+        {
+            otherKeys[i] = null;
+            otherValues[i] = null;
+        }
+        otherCount = 0;
+        for (i = 0; (deferredCount > 0) && (i < PROPERTY_COUNT); i++)
+        {
+            cancelDeferred(i);
+        }
+    }
+
+    /** Returns true if the resource was identified. */
+    public boolean isIdentified()
+    {
+        return identified;
+    }
+
+    /** Returns the line number in the magic database of the entry that
+     *  matched, or -1 if the resource was not identified.
+     */
+    public int getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    /** Returns the signature length of the entry that matched, which is
+     *  used to choose between several matching entries, or 0 if the
+     *  resource was not identified.
+     */
+    public int getScore()
+    {
+        return score;
+    }
+
+    /** Returns the description of the format, the {@link IdentifierMagicDB#COMMENT_KEY} property. */
+    public String getComment()
+    {
+        evaluateDeferred(PROPERTY_COMMENT);
+        return comment;
+    }
+
+    /** Returns the file suffix, the {@link IdentifierMagicDB#FILE_SUFFIX_KEY} property. */
+    public String getSuffix()
+    {
+        evaluateDeferred(PROPERTY_SUFFIX);
+        return suffix;
+    }
+
+    /** Returns the format identifier, the {@link IdentifierMagicDB#FFID_KEY} property. */
+    public String getFormatId()
+    {
+        evaluateDeferred(PROPERTY_FORMAT_ID);
+        return formatId;
+    }
+
+    /** Returns the MIME type, the {@link IdentifierMagicDB#MIME_KEY} property. */
+    public String getMimeType()
+    {
+        evaluateDeferred(PROPERTY_MIME);
+        return mimeType;
+    }
+
+    /** Returns the title, the {@link IdentifierMagicDB#TITLE_KEY} property. */
+    public String getTitle()
+    {
+        evaluateDeferred(PROPERTY_TITLE);
+        return title;
+    }
+
+    /** Returns the creator, the {@link IdentifierMagicDB#AUTHOR_KEY} property. */
+    public String getCreator()
+    {
+        evaluateDeferred(PROPERTY_CREATOR);
+        return creator;
+    }
+
+    /** Returns the image resolution, the {@link IdentifierMagicDB#IMAGE_SIZE_KEY} property. */
+    public String getResolution()
+    {
+        evaluateDeferred(PROPERTY_RESOLUTION);
+        return resolution;
+    }
+
+    /** Returns true if the number of audio channels is known. */
+    public boolean hasChannels()
+    {
+        evaluateDeferred(PROPERTY_CHANNELS);
+        return channelsSet;
+    }
+
+    /** Returns the number of audio channels, the {@link IdentifierMagicDB#AUDIO_CHANNELS_KEY} property. */
+    public int getChannels()
+    {
+        evaluateDeferred(PROPERTY_CHANNELS);
+        return channels;
+    }
+
+    /** Returns true if the sampling rate is known. */
+    public boolean hasSamplingRate()
+    {
+        evaluateDeferred(PROPERTY_SAMPLING_RATE);
+        return samplingRateSet;
+    }
+
+    /** Returns the sampling rate in Hz, the {@link IdentifierMagicDB#SAMPLING_RATE_KEY} property. */
+    public int getSamplingRate()
+    {
+        evaluateDeferred(PROPERTY_SAMPLING_RATE);
+        return samplingRate;
+    }
+
+    /** Returns true if the frame rate is known. */
+    public boolean hasFrameRate()
+    {
+        evaluateDeferred(PROPERTY_FRAME_RATE);
+        return frameRateSet;
+    }
+
+    /** Returns the frame rate in frames per second, the {@link IdentifierMagicDB#FRAME_RATE_KEY} property. */
+    public float getFrameRate()
+    {
+        evaluateDeferred(PROPERTY_FRAME_RATE);
+        return frameRate;
+    }
+
+    /** Returns the value of a property which has no field, or null. */
+    public String getProperty(String key)
+    {
+        int i;
+        for (i = 0; i < otherCount; i++)
+        {
+            if (otherKeys[i].equals(key))
+                return otherValues[i];
+        }
+        return null;
+    }
+
+    /** Fills the property table with the result.
+     *
+     * @param metadata The property table. It is NOT cleared in this method,
+     *   the properties of the result simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     */
+    public boolean toProperties(Properties metadata)
+    {
+        int i;
+        boolean set = false;
+
+        for (i = 0; (deferredCount > 0) && (i < PROPERTY_COUNT); i++)
+        {
+            evaluateDeferred(1 << i);
+        }
+        for (i = 0; i < otherCount; i++)
+        {
+            metadata.setProperty(otherKeys[i], otherValues[i]);
+            set = true;
+        }
+        set |= setProperty(metadata, IdentifierMagicDB.FILE_SUFFIX_KEY, suffix);
+        set |= setProperty(metadata, IdentifierMagicDB.FFID_KEY, formatId);
+        set |= setProperty(metadata, IdentifierMagicDB.TITLE_KEY, title);
+        set |= setProperty(metadata, IdentifierMagicDB.AUTHOR_KEY, creator);
+        set |= setProperty(metadata, IdentifierMagicDB.IMAGE_SIZE_KEY, resolution);
+        set |= setProperty(metadata, IdentifierMagicDB.MIME_KEY, mimeType);
+        if (channelsSet)
+            set |= setProperty(metadata, IdentifierMagicDB.AUDIO_CHANNELS_KEY, Integer.toString(channels));
+        if (samplingRateSet)
+            set |= setProperty(metadata, IdentifierMagicDB.SAMPLING_RATE_KEY, Integer.toString(samplingRate));
+        if (frameRateSet)
+            set |= setProperty(metadata, IdentifierMagicDB.FRAME_RATE_KEY, Float.toString(frameRate));
+        set |= setProperty(metadata, IdentifierMagicDB.COMMENT_KEY, comment);
+        return set;
+    }
+
+    /** Returns a new property table filled with the result. */
+    public Properties toProperties()
+    {
+        Properties metadata = new Properties();
+        toProperties(metadata);
+        return metadata;
+    }
+
+    private static boolean setProperty(Properties metadata, String key, String value)
+    {
+        if (value == null)
+            return false;
+        metadata.setProperty(key, value);
+        return true;
+    }
+
+    /** Sets the entry that matched. */
+    void setEntry(MagicEntry entry)
+    {
+        identified = true;
+        lineNumber = entry.lineNumber;
+        score = entry.signatureLength;
+    }
+
+    /** Sets a property whose value is computed from a template when it
+     *  is first accessed. The computation must not fail.
+     *
+     * @param property One of the PROPERTY_XXX constants, except PROPERTY_OTHER.
+     * @param template The template which computes the property.
+     * @param item The item of the template which gives the property.
+     * @param slots The slot values of the template.
+     */
+    void setDeferredProperty(int property, PropertyTemplate template, int item, String[] slots)
+    {
+        int index = getPropertyBit(property);
+
+        if (!isRequested(property))
+            return;
+        if (deferredTemplates == null)
+        {
+            deferredTemplates = new PropertyTemplate[PROPERTY_COUNT];
+            deferredItems = new int[PROPERTY_COUNT];
+            deferredSlots = new String[PROPERTY_COUNT][];
+        }
+        if (deferredTemplates[index] == null)
+            deferredCount++;
+        deferredTemplates[index] = template;
+        deferredItems[index] = item;
+        deferredSlots[index] = slots;
+    }
+
+    /** Computes the property if it is deferred, the value is then kept. */
+    private void evaluateDeferred(int property)
+    {
+        int index;
+        PropertyTemplate template;
+        String[] slots;
+
+        if (deferredCount == 0)
+            return;
+        index = getPropertyBit(property);
+        template = deferredTemplates[index];
+        if (template == null)
+            return;
+        slots = deferredSlots[index];
+        cancelDeferred(index);
+        template.evaluate(deferredItems[index], slots, this);
+    }
+
+    /** Removes the deferred value of a property, at the specified bit. */
+    private void cancelDeferred(int index)
+    {
+        if ((deferredCount == 0) || (deferredTemplates[index] == null))
+            return;
+        deferredTemplates[index] = null;
+        deferredSlots[index] = null;
+        deferredCount--;
+    }
+
+    /** Returns the bit number of a PROPERTY_XXX constant. */
+    private static int getPropertyBit(int property)
+    {
+        int index = 0;
+        while ((property >>> index) != 1)
+        {
+            index++;
+        }
+        return index;
+    }
+
+    /** Sets a property, the numeric properties are given as text. */
+    void setProperty(String key, String value)
+    {
+        int property = getPropertyFlag(key);
+
+        if (property != PROPERTY_OTHER)
+            cancelDeferred(getPropertyBit(property));
+        switch (property)
+        {
+            case PROPERTY_COMMENT:
+                if (isRequested(PROPERTY_COMMENT))
+                    comment = value;
+                break;
+            case PROPERTY_SUFFIX:
+                if (isRequested(PROPERTY_SUFFIX))
+                    suffix = value;
+                break;
+            case PROPERTY_FORMAT_ID:
+                if (isRequested(PROPERTY_FORMAT_ID))
+                    formatId = value;
+                break;
+            case PROPERTY_MIME:
+                if (isRequested(PROPERTY_MIME))
+                    mimeType = value;
+                break;
+            case PROPERTY_TITLE:
+                if (isRequested(PROPERTY_TITLE))
+                    title = value;
+                break;
+            case PROPERTY_CREATOR:
+                if (isRequested(PROPERTY_CREATOR))
+                    creator = value;
+                break;
+            case PROPERTY_RESOLUTION:
+                if (isRequested(PROPERTY_RESOLUTION))
+                    resolution = value;
+                break;
+            case PROPERTY_CHANNELS:
+            case PROPERTY_SAMPLING_RATE:
+                setIntProperty(key, Integer.parseInt(value));
+                break;
+            case PROPERTY_FRAME_RATE:
+                setFloatProperty(key, Float.parseFloat(value));
+                break;
+            default:
+                if (isRequested(PROPERTY_OTHER))
+                    setOtherProperty(key, value);
+                break;
+        }
+    }
+
+    /** Sets a property whose value is an integer. */
+    void setIntProperty(String key, int value)
+    {
+        if (key.equals(IdentifierMagicDB.AUDIO_CHANNELS_KEY))
+        {
+            if (!isRequested(PROPERTY_CHANNELS))
+                return;
+            cancelDeferred(getPropertyBit(PROPERTY_CHANNELS));
+            channels = value;
+            channelsSet = true;
+        } else
+        if (key.equals(IdentifierMagicDB.SAMPLING_RATE_KEY))
+        {
+            if (!isRequested(PROPERTY_SAMPLING_RATE))
+                return;
+            cancelDeferred(getPropertyBit(PROPERTY_SAMPLING_RATE));
+            samplingRate = value;
+            samplingRateSet = true;
+        } else
+            setProperty(key, Integer.toString(value));
+    }
+
+    /** Sets a property whose value is a float. */
+    void setFloatProperty(String key, float value)
+    {
+        if (key.equals(IdentifierMagicDB.FRAME_RATE_KEY))
+        {
+            if (!isRequested(PROPERTY_FRAME_RATE))
+                return;
+            cancelDeferred(getPropertyBit(PROPERTY_FRAME_RATE));
+            frameRate = value;
+            frameRateSet = true;
+        } else
+            setProperty(key, Float.toString(value));
+    }
+
+    private void setOtherProperty(String key, String value)
+    {
+        String[] keys;
+        String[] values;
+        int i;
+
+        for (i = 0; i < otherCount; i++)
+        {
+            if (otherKeys[i].equals(key))
+            {
+                otherValues[i] = value;
+                return;
+            }
+        }
+        if (otherKeys == null)
+        {
+            otherKeys = new String[4];
+            otherValues = new String[4];
+        } else
+        if (otherCount == otherKeys.length)
+        {
+            keys = new String[otherCount * 2];
+            values = new String[otherCount * 2];
+            System.arraycopy(otherKeys, 0, keys, 0, otherCount);
+            System.arraycopy(otherValues, 0, values, 0, otherCount);
+            otherKeys = keys;
+            otherValues = values;
+        }
+        otherKeys[otherCount] = key;
+        otherValues[otherCount] = value;
+        otherCount++;
+    }
+}
+
+/*
+
+  $Log$
+
+*/
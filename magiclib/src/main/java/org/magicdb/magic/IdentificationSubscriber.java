@@ -0,0 +1,57 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+/** Receives the results of an {@link IdentificationPublisher}. The
+ *  methods are never called at the same time by several threads, and
+ *  {@link #onNext(IdentificationFuture)} is only called for results
+ *  that have been requested with {@link IdentificationPublisher#request(long)}.
+ */
+public interface IdentificationSubscriber
+{
+    /** Called once when the subscriber is subscribed, before any other
+     *  method. No result is published until results are requested.
+     *
+     * @param publisher The publisher, used to request results or to cancel.
+     */
+    public void onSubscribe(IdentificationPublisher publisher);
+
+    /** Called for each source once it has been identified. The
+     *  identification is complete, and its result or error can be
+     *  retrieved from the future.
+     *
+     * @param result The completed identification.
+     */
+    public void onNext(IdentificationFuture result);
+
+    /** Called once all the sources have been identified and published. */
+    public void onComplete();
+
+    /** Called if the sources could not be retrieved, or if
+     *  {@link #onNext(IdentificationFuture)} threw an exception, in which
+     *  case the publisher is cancelled. No other method is called
+     *  afterwards.
+     *
+     * @param e The error returned by the sources or by onNext.
+     */
+    public void onError(Throwable e);
+}
+
+/*
+
+  $Log$
+
+*/
@@ -26,10 +26,10 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.LinkedList;
 
-import com.willcode4beer.infix.InfixPostfixEvaluator;
 import java.util.Properties;
 
 /** Implements a ressource identifier plugin based on a magic
@@ -47,6 +47,23 @@ import java.util.Properties;
  *
  *   </ul>
  *
+ *  <p>Once {@link #initLibrary()} has been called, several threads can
+ *  identify resources with the same instance at the same time.</p>
+ *
+ *  <p>Data that is received in chunks can be identified as it arrives with
+ *  an {@link IncrementalIdentifier}, and files can be identified without
+ *  blocking the caller with an {@link AsynchronousIdentifier}.</p>
+ *
+ *  <p>Besides the byte, short, long and string types, the database can use
+ *  the type search/N, which matches if its string value starts at one of
+ *  the N offsets from the offset of the entry.</p>
+ *
+ *  <p>Continuation lines can be nested: a line starting with &amp;&amp; or
+ *  &gt;&gt; continues the last line of the level above, and is only
+ *  evaluated if it matched. An offset starting with + is relative to
+ *  the end of the data matched by the line that is continued, for
+ *  example &gt;&gt;+2 reads the data 2 bytes after it.</p>
+ *
  */
 public class IdentifierMagicDB
 {
@@ -64,13 +81,65 @@ public class IdentifierMagicDB
 
     /** This is the main list of magic entries that have been parsed */
     private LinkedList entries;
+    /** This is the list of parsed entries in database order, once parsing
+     *  is complete. The index of an entry in this table is its rank when
+     *  two entries have the same signature length.
+     */
+    private MagicEntry[] entryTable;
+    /** Length of the data at the start of a resource read by the direct
+     *  offset entries.
+     */
+    private long headLength;
+    /** Length of the data at the end of a resource read by the entries
+     *  relative to the end.
+     */
+    private long tailLength;
+    /** Indexes in the entry table of the entries in the order in which
+     *  they are evaluated, from the best ranked to the worst ranked. The
+     *  first entry that matches in this order is the best match.
+     */
+    private int[] evaluationOrder;
+    /** Indicates for each entry of the entry table if all its checks
+     *  are within the quick header of a resource.
+     */
+    private boolean[] quickEntries;
+    /** The upper case of each ISO-8859-1 character, as it is encoded in
+     *  ISO-8859-1, or -1 if its upper case is several characters.
+     */
+    private int[] upperCaseTable;
+    /** The number of search patterns, each one being the values of the
+     *  search entries that look at the same offsets.
+     */
+    private int searchPatternCount;
+    /** Indicates that the entries are evaluated on the quick header first */
+    private boolean quickMode = true;
     private InputStream magicInputStream;
 
-    /** Cache of the streamLength */
-    private long streamLength;
 
     public static final String PLUGIN_ID = "org.magicdb.magic";
 
+    /** Length of the data at the start of a resource which is read at
+     *  once in quick mode.
+     */
+    public static final int QUICK_HEADER_LENGTH = 64;
+
+    /** Maximum number of additional information entries of an entry for
+     *  which the properties are compiled.
+     */
+    private static final int MAX_TEMPLATE_EXTRA_COUNT = 8;
+
+    /** Start of the search type, which is followed by the number of
+     *  offsets at which the value is looked for.
+     */
+    private static final String SEARCH_TYPE_PREFIX = "search/";
+
+    /** Evaluation state of an entry which is not known yet. */
+    static final byte ENTRY_UNKNOWN = 0;
+    /** Evaluation state of an entry which matches the data. */
+    static final byte ENTRY_MATCH = 1;
+    /** Evaluation state of an entry which does not match the data. */
+    static final byte ENTRY_NO_MATCH = 2;
+
     /** Property key return name for title information. */
     public static final String TITLE_KEY = "title";
     /** Property key return name for creator/author information. */
@@ -342,13 +411,13 @@ public class IdentifierMagicDB
                // Continuation line for identification
                case '&':
                    extraEntry = new MagicEntry();
-                   // Skip the first character and get the numerical offset.
-                   getOffset(tokens[0].substring(1),extraEntry);
                    if (currentEntry == null)
                    {
                         // Throw EXCEPTION here!
                         throw new IllegalArgumentException("Error: Invalid magic entry");
                    }
+                   // Skip the continuation characters and get the numerical offset.
+                   getContinuation(tokens[0],currentEntry,currentEntry.matchEntries,extraEntry);
                    currentEntry.signatureLength += getType(tokens[1],extraEntry);
                    currentEntry.signatureLength += getOperator(tokens[2],extraEntry);
                    if (tokens.length > 3)
@@ -358,16 +427,17 @@ public class IdentifierMagicDB
                // Additional information line
                case '>':
                    extraEntry = new MagicEntry();
-                   getOffset(tokens[0].substring(1),extraEntry);
                    if (currentEntry == null)
                    {
                         // Throw EXCEPTION here!
                         throw new IllegalArgumentException("Error: Invalid magic entry");
                    }
+                   getContinuation(tokens[0],currentEntry,currentEntry.extraMatchEntries,extraEntry);
                   getType(tokens[1],extraEntry);
                   getOperator(tokens[2],extraEntry);
                   if (tokens.length > 3)
                      extraEntry.description = tokens[3];
+                   extraEntry.format = new DescriptionFormat(extraEntry.description);
 
                    currentEntry.extraMatchEntries.add(extraEntry);
                    break;
@@ -385,7 +455,61 @@ public class IdentifierMagicDB
             }
 
         } // end while
+        entryTable = (MagicEntry[])entries.toArray(new MagicEntry[entries.size()]);
+        computeExtents();
+        computeQuickEntries();
+        computeUpperCaseTable();
+        packValues();
+        computeSearchPatterns();
+        computeEvaluationOrder();
+        orderMatchEntries();
+        compileTemplates();
+    }
+
+    /** This fills up the level, the parent and the offset of a
+     *  continuation entry. Each additional & or > character nests the
+     *  entry under the last entry of the level above in the same list,
+     *  and a + sign before the offset makes it relative to the end of
+     *  the data matched by the parent entry.
+     *
+     * @param token The token containing the continuation characters
+     *   and the offset information.
+     * @param mainEntry The entry that is continued.
+     * @param list The continuation entries of the same kind already read.
+     * @param entry The continuation entry to fill up.
+     */
+    private void getContinuation(String token, MagicEntry mainEntry, LinkedList list, MagicEntry entry)
+    {
+        char c = token.charAt(0);
+        int i;
 
+        entry.level = 0;
+        while ((entry.level < token.length()) && (token.charAt(entry.level) == c))
+            entry.level++;
+        if (entry.level > 1)
+        {
+            // The parent is the last entry of the level above
+            for (i = list.size() - 1; i >= 0; i--)
+            {
+                if (((MagicEntry)list.get(i)).level < entry.level)
+                    break;
+            }
+            if ((i < 0) || (((MagicEntry)list.get(i)).level != entry.level - 1))
+                throw new IllegalArgumentException("Error: Invalid continuation level near line "+Integer.toString(magicFile.getLineNumber()));
+            entry.parentIndex = i;
+            mainEntry.nestedEntries = true;
+        }
+        token = token.substring(entry.level);
+        if ((token.length() > 0) && (token.charAt(0) == '+'))
+        {
+            token = token.substring(1);
+            // Only direct offsets can be relative
+            if ((token.length() == 0) || (token.charAt(0) == '('))
+                throw new IllegalArgumentException("Error: Invalid relative offset near line "+Integer.toString(magicFile.getLineNumber()));
+            entry.relativeOffset = true;
+            mainEntry.nestedEntries = true;
+        }
+        getOffset(token, entry);
     }
 
     /** This fills up the correct offset information in the MagicEntry
@@ -470,6 +594,16 @@ public class IdentifierMagicDB
         String s;
         String s1;
         int idx = token.indexOf('&');
+        // The search type contains the number of offsets to look at
+        if ((idx == -1) && token.trim().startsWith(SEARCH_TYPE_PREFIX))
+        {
+          entry.andValue = MagicEntry.DEFAULT_AND_VALUE;
+          entry.type = MagicEntry.TYPE_SEARCH;
+          entry.searchRange = Integer.decode(token.trim().substring(SEARCH_TYPE_PREFIX.length())).intValue();
+          if (entry.searchRange <= 0)
+            throw new IllegalArgumentException("Error: Invalid search range near line "+Integer.toString(magicFile.getLineNumber()));
+          return MagicEntry.getTypeSize(entry.type);
+        }
         if (idx == -1)
         {
           // Non numeric values cannot have an AND operator
@@ -508,6 +642,10 @@ public class IdentifierMagicDB
         String convertedString = escapeString(token);
         char operator = token.charAt(0);
 
+        // A search entry can only look for a value
+        if ((entry.type == MagicEntry.TYPE_SEARCH) && ((operator == '>') || ((operator == 'x') && (token.length()==1))))
+            throw new IllegalArgumentException("Error: Invalid comparison for search type near line "+Integer.toString(magicFile.getLineNumber()));
+
         // Special case for the ANY VALUE operator.
         if ((operator == 'x') && (token.length()==1))
         {
@@ -612,6 +750,8 @@ public class IdentifierMagicDB
                 }
                 break;
         }
+        if ((entry.type == MagicEntry.TYPE_SEARCH) && (entry.value.limit() == 0))
+            throw new IllegalArgumentException("Error: Empty search value near line "+Integer.toString(magicFile.getLineNumber()));
         return signatureLength;
     }
 
@@ -634,16 +774,22 @@ public class IdentifierMagicDB
      * @param entry The MagicEntry associated containing the information
      *   where to seek to.
      * @param input The input steam.
+     * @param length The cached length of the input, instead of
+     *   calling streamLength() directly.
      * @return true if the seek was successful, otherwise false.
      */
-    private boolean seekInFile(MagicEntry entry, DataInput input) throws IOException
+    private boolean seekInFile(MagicEntry entry, DataInput input, long length) throws IOException
     {
         long offset;
-        long length;
 
-        /** Use the cached entry instead of calling streamLength() directly */
-        length = streamLength;
         offset = 0;
+        // The length is not known yet, entries relative to the end of
+        // the file cannot be evaluated.
+        if (length == RangeDataInput.UNKNOWN_LENGTH)
+        {
+            if (entry.offset < 0)
+                throw new DataUnavailableException(entry.offset, 0, true);
+        } else
         // The offset is greater than the length to seek in
         if (entry.offset > length)
         {
@@ -699,7 +845,7 @@ public class IdentifierMagicDB
             }
 
             // Validate the indirect offsets
-            if ((offset + entry.extraOffset) > length)
+            if ((length != RangeDataInput.UNKNOWN_LENGTH) && ((offset + entry.extraOffset) > length))
                return false;
             if ((offset + entry.extraOffset) < 0)
                return false;
@@ -709,6 +855,29 @@ public class IdentifierMagicDB
         return true;
     }
 
+    /** Seeks to the offset of a continuation entry, which is relative to
+     *  the end of the data matched by its parent entry if the entry has
+     *  a relative offset.
+     *
+     * @param parentEnd The position of the end of the data matched by
+     *   the parent entry.
+     * @return true if the seek was successful, otherwise false.
+     */
+    private boolean seekInFile(MagicEntry entry, DataInput input, long length, long parentEnd) throws IOException
+    {
+        long offset;
+
+        if (!entry.relativeOffset)
+            return seekInFile(entry, input, length);
+        offset = parentEnd + entry.offset;
+        if ((length != RangeDataInput.UNKNOWN_LENGTH) && (offset > length))
+            return false;
+        if (offset < 0)
+            return false;
+        streamSeek(input, offset);
+        return true;
+    }
+
 
     /** Return the maxiumum string length to read from a description containing
      *  a string specified.
@@ -811,13 +980,17 @@ public class IdentifierMagicDB
                            input.readFully(b);
                         }
                         // If this is a case insensitive comparison
-                        // we must immediately uppercase the string
-                        // before converting it to a byte array.
+                        // we must immediately uppercase the string,
+                        // which is done in place unless a character has
+                        // an upper case of several characters.
                         if (entry.type == MagicEntry.TYPE_ISTRING)
                         {
-                            s1 = new String(b,"ISO8859_1");
-                            s1 = s1.toUpperCase();
-                            b = s1.getBytes("ISO8859_1");
+                            if (!toUpperCase(b))
+                            {
+                                s1 = new String(b,"ISO8859_1");
+                                s1 = s1.toUpperCase();
+                                b = s1.getBytes("ISO8859_1");
+                            }
                         }
                         readValue = ByteBuffer.wrap(b);
                         break;
@@ -888,8 +1061,9 @@ public class IdentifierMagicDB
         boolean cmpResult = false;
         long l1;
         long l2;
+        // The value of the entry is shared by all the threads, so its
+        // position is never changed.
         ope1.rewind();
-        ope2.rewind();
 
         switch (entry.comparisonOperator)
         {
@@ -901,7 +1075,7 @@ public class IdentifierMagicDB
                 if (entry.isNumeric())
                 {
                     l1 = ope1.getLong();
-                    l2 = ope2.getLong();
+                    l2 = ope2.getLong(0);
                     if (l1 == l2)
                         cmpResult = true;
                 } else
@@ -921,7 +1095,7 @@ public class IdentifierMagicDB
                 if (entry.isNumeric())
                 {
                     l1 = ope1.getLong();
-                    l2 = ope2.getLong();
+                    l2 = ope2.getLong(0);
                     if (l1 != l2)
                         cmpResult = true;
                 } else
@@ -942,7 +1116,7 @@ public class IdentifierMagicDB
                 if (entry.isNumeric())
                 {
                     l1 = ope1.getLong();
-                    l2 = ope2.getLong();
+                    l2 = ope2.getLong(0);
                     if (l1 > l2)
                         cmpResult = true;
                 } else
@@ -962,76 +1136,360 @@ public class IdentifierMagicDB
                  // Numeric only allowed for this type of comparison
               if (entry.isNumeric()==false)
                 throw new IllegalArgumentException("Numeric only allowed for this type of comparison");
-                if (ope1.getLong() < ope2.getLong())
+                if (ope1.getLong() < ope2.getLong(0))
                     cmpResult = true;
                 break;
             case '&':
                  // Numeric only allowed for this type of comparison
               if (entry.isNumeric()==false)
                 throw new IllegalArgumentException("Numeric only allowed for this type of comparison");
-                if ((ope1.getLong() & ope2.getLong())!=0)
+                if ((ope1.getLong() & ope2.getLong(0))!=0)
                     cmpResult = true;
                 break;
             case '^':
                  // Numeric only allowed for this type of comparison
                 if (entry.isNumeric()==false)
                   throw new IllegalArgumentException("Numeric only allowed for this type of comparison");
-                if ((ope1.getLong() ^ ope2.getLong())!=0)
+                if ((ope1.getLong() ^ ope2.getLong(0))!=0)
                     cmpResult = true;
                 break;
 
         }
         ope1.rewind();
-        ope2.rewind();
         return cmpResult;
     }
 
 
-    private String getExtraInfo(DataInput input, MagicEntry entry) throws IOException
+    /** Reads the value of the entry at the current position and compares
+     *  it with the value of the entry.
+     *
+     * @param length The cached length of the input.
+     * @param searchResults The values already looked for in the resource,
+     *   or null.
+     */
+    private boolean matchValue(DataInput input, long length, MagicEntry entry, int[][] searchResults) throws IOException
+    {
+        if (entry.type == MagicEntry.TYPE_SEARCH)
+            return search(input, length, entry, searchResults);
+        if (entry.packedValue == null)
+            return compareValues(readData(input, entry), entry.value, entry);
+        return comparePackedValue(input, entry);
+    }
+
+    /** Returns a table where the values looked for in a resource are kept,
+     *  so that the values of the search entries that look at the same
+     *  offsets are found with a single scan, or null if there are no
+     *  search entries.
+     */
+    private int[][] createSearchResults()
+    {
+        if (searchPatternCount == 0)
+            return null;
+        return new int[searchPatternCount][];
+    }
+
+    /** Looks for the value of a search entry from the current position.
+     *  The bytes after the end of the input are not searched. If the
+     *  value is found, the input is left after its first occurrence,
+     *  which is the end of the data matched by the entry.
+     *
+     * @param length The cached length of the input.
+     * @param searchResults The values already looked for in the resource,
+     *   or null. The values of the other entries with the same search
+     *   patterns are looked for at the same time, and added to it.
+     */
+    private boolean search(DataInput input, long length, MagicEntry entry, int[][] searchResults) throws IOException
+    {
+        SearchPatterns patterns = entry.searchPatterns;
+        long start = streamPosition(input, length);
+        int[] found;
+        byte[] b;
+        int count;
+        int position;
+
+        found = null;
+        if ((searchResults != null) && (patterns.getCount() > 1))
+        {
+            found = searchResults[patterns.getId()];
+            if (found == null)
+            {
+                count = (int)Math.min(patterns.getWindowLength(), streamAvailable(input));
+                // Data in memory is only shared if it is all there,
+                // otherwise only the data of this entry is required.
+                if (!(input instanceof RangeDataInput) ||
+                    ((RangeDataInput)input).isAvailable(((RangeDataInput)input).getFilePointer(), count))
+                {
+                    b = new byte[count];
+                    input.readFully(b);
+                    found = patterns.search(b, count);
+                    searchResults[patterns.getId()] = found;
+                }
+            }
+        }
+        if (found != null)
+            position = found[entry.searchIndex];
+        else
+        {
+            count = (int)Math.min(patterns.getWindowLength(entry.searchIndex), streamAvailable(input));
+            b = new byte[count];
+            input.readFully(b);
+            position = patterns.search(entry.searchIndex, b, count);
+        }
+        if (position < 0)
+            return false;
+        streamSeek(input, start + position + entry.value.limit());
+        return true;
+    }
+
+    /** Groups the search entries that look at the same offsets, so that
+     *  their values are looked for with a single scan of the data. The
+     *  entries with an indirect or relative offset are not grouped.
+     */
+    private void computeSearchPatterns()
+    {
+        Hashtable groupTable = new Hashtable();
+        LinkedList groups = new LinkedList();
+        LinkedList group;
+        LinkedList list;
+        MagicEntry entry;
+        SearchPatterns patterns;
+        byte[][] values;
+        String key;
+        int i;
+        int j;
+        int k;
+
+        for (i = 0; i < entryTable.length; i++)
+        {
+            for (k = 0; k < 2; k++)
+            {
+                list = (k == 0) ? entryTable[i].matchEntries : entryTable[i].extraMatchEntries;
+                for (j = -1; j < list.size(); j++)
+                {
+                    if (j == -1)
+                    {
+                        if (k != 0)
+                            continue;
+                        entry = entryTable[i];
+                    } else
+                        entry = (MagicEntry)list.get(j);
+                    if (entry.type != MagicEntry.TYPE_SEARCH)
+                        continue;
+                    group = null;
+                    key = entry.offset + "/" + entry.searchRange;
+                    if ((entry.extraOffset == -1) && !entry.relativeOffset)
+                        group = (LinkedList)groupTable.get(key);
+                    if (group == null)
+                    {
+                        group = new LinkedList();
+                        groups.add(group);
+                        if ((entry.extraOffset == -1) && !entry.relativeOffset)
+                            groupTable.put(key, group);
+                    }
+                    group.add(entry);
+                }
+            }
+        }
+        searchPatternCount = groups.size();
+        for (i = 0; i < groups.size(); i++)
+        {
+            group = (LinkedList)groups.get(i);
+            values = new byte[group.size()][];
+            for (j = 0; j < group.size(); j++)
+            {
+                values[j] = ((MagicEntry)group.get(j)).value.array();
+            }
+            patterns = new SearchPatterns(i, ((MagicEntry)group.get(0)).searchRange, values);
+            for (j = 0; j < group.size(); j++)
+            {
+                entry = (MagicEntry)group.get(j);
+                entry.searchPatterns = patterns;
+                entry.searchIndex = j;
+            }
+        }
+    }
+
+    /** Compares the data at the current position with the packed value
+     *  of the entry, 8 bytes at a time. As with {@link #readData(DataInput, MagicEntry)},
+     *  all the bytes of the value are read.
+     */
+    private boolean comparePackedValue(DataInput input, MagicEntry entry) throws IOException
+    {
+        RangeDataInput range;
+        long[] packedValue = entry.packedValue;
+        int length = entry.value.limit();
+        long difference;
+        byte[] b;
+        int count;
+        int i;
+
+        if (streamAvailable(input) < length)
+            throw new EOFException();
+        difference = 0;
+        if (input instanceof RangeDataInput)
+        {
+            range = (RangeDataInput)input;
+            if (range.isAvailable(range.getFilePointer(), length))
+            {
+                for (i = 0; i < packedValue.length; i++)
+                {
+                    count = Math.min(8, length - i * 8);
+                    difference |= (range.readBytes(count) << (8 * (8 - count))) ^ packedValue[i];
+                }
+                return difference == 0;
+            }
+        }
+        b = new byte[length];
+        input.readFully(b);
+        for (i = 0; i < packedValue.length; i++)
+        {
+            difference |= packBytes(b, i * 8) ^ packedValue[i];
+        }
+        return difference == 0;
+    }
+
+    /** Returns up to 8 bytes of the array from the specified offset as a
+     *  big endian value, completed with zeros.
+     */
+    private static long packBytes(byte[] b, int off)
+    {
+        long value = 0;
+        int i;
+
+        for (i = off; i < off + 8; i++)
+        {
+            value <<= 8;
+            if (i < b.length)
+                value |= b[i] & 0xff;
+        }
+        return value;
+    }
+
+    /** Packs the values of the string entries that are compared for
+     *  equality, so that they are compared 8 bytes at a time.
+     */
+    private void packValues()
+    {
+        MagicEntry entry;
+        int i;
+        int j;
+
+        for (i = 0; i < entryTable.length; i++)
+        {
+            packValue(entryTable[i]);
+            for (j = 0; j < entryTable[i].matchEntries.size(); j++)
+            {
+                entry = (MagicEntry)entryTable[i].matchEntries.get(j);
+                packValue(entry);
+            }
+        }
+    }
+
+    private void packValue(MagicEntry entry)
+    {
+        byte[] b;
+        int i;
+
+        if ((entry.type != MagicEntry.TYPE_STRING) || (entry.comparisonOperator != '='))
+            return;
+        b = entry.value.array();
+        entry.packedValue = new long[(b.length + 7) / 8];
+        for (i = 0; i < entry.packedValue.length; i++)
+        {
+            entry.packedValue[i] = packBytes(b, i * 8);
+        }
+    }
+
+    /** Reads the value of an additional information entry, or returns
+     *  null if the entry does not match.
+     *
+     * @param parentEnd The position of the end of the data matched by
+     *   the parent entry, used if the entry has a relative offset.
+     */
+    private ByteBuffer readExtraInfo(DataInput input, long length, MagicEntry entry, long parentEnd) throws IOException
     {
-      MagicEntry additionalEntry;
       ByteBuffer magicObject;
-      String s;
-      int i;
 
-      if (seekInFile(entry,input)==false)
-      {
+      if (seekInFile(entry,input,length,parentEnd)==false)
          return null;
+      // The value of a search entry is the value found
+      if (entry.type == MagicEntry.TYPE_SEARCH)
+      {
+         if (search(input, length, entry, null)==false)
+            return null;
+         return entry.value;
       }
       magicObject = readData(input, entry);
       if (compareValues(magicObject, entry.value, entry)==false)
          return null;
+      return magicObject;
+    }
+
+    /** Reads the value of the additional information entry at the
+     *  specified index of the entry. A nested entry whose parent entry
+     *  did not match is not read, and null is returned.
+     *
+     * @param magicObjects The values read for the entries before it.
+     * @param ends The end of the data matched by the main entry, followed
+     *   by the end of the data matched by each additional information
+     *   entry, which is filled for this one, or null if the entry has no
+     *   nested entries.
+     */
+    private ByteBuffer readExtraInfo(DataInput input, long length, MagicEntry entry, int index,
+        ByteBuffer[] magicObjects, long[] ends) throws IOException
+    {
+      MagicEntry extraEntry = (MagicEntry)entry.extraMatchEntries.get(index);
+      ByteBuffer magicObject;
+
+      if (ends == null)
+         return readExtraInfo(input, length, extraEntry, 0);
+      if ((extraEntry.parentIndex != -1) && (magicObjects[extraEntry.parentIndex] == null))
+         return null;
+      magicObject = readExtraInfo(input, length, extraEntry, ends[extraEntry.parentIndex + 1]);
+      if (magicObject != null)
+         ends[index + 1] = streamPosition(input, length);
+      return magicObject;
+    }
+
+    /** Appends the extra information of the entry to the buffer, or
+     *  "null" if the entry does not match.
+     */
+    private void getExtraInfo(DataInput input, long length, MagicEntry entry, StringBuffer buffer) throws IOException
+    {
+      ByteBuffer magicObject;
 
+      magicObject = readExtraInfo(input, length, entry, 0);
+      if (magicObject == null)
+         buffer.append((String)null);
+      else
       if (entry.isNumeric())
-        s = new PrintfFormat(entry.description).sprintf(magicObject.getLong());
+        entry.format.format(buffer, magicObject.getLong());
       else
-        s = new PrintfFormat(entry.description).sprintf(new String(magicObject.array()));
-
-      return s;
+        entry.format.format(buffer, new String(magicObject.array()));
     }
 
 
-    private boolean compareMatchEntries(DataInput input, MagicEntry entry) throws IOException
+    private boolean compareMatchEntries(DataInput input, long length, MagicEntry entry, int[][] searchResults) throws IOException
     {
 
       MagicEntry additionalEntry;
-      ByteBuffer magicObject;
       int i;
 
       // If no additional match entries, then simply return true
       if (entry.matchEntries == null)
           return true;
+      if (entry.nestedEntries)
+          return compareNestedEntries(input, length, entry, searchResults);
 
       // Check each match entry individually
       for (i = 0; i < entry.matchEntries.size(); i++)
       {
            additionalEntry =  (MagicEntry)entry.matchEntries.get(i);
-           if (seekInFile(additionalEntry,input)==false)
+           if (seekInFile(additionalEntry,input,length)==false)
            {
                return false;
            }
-           magicObject = readData(input, additionalEntry);
-           if (compareValues(magicObject, additionalEntry.value, additionalEntry)==false)
+           if (matchValue(input, length, additionalEntry, searchResults)==false)
                return false;
 
       }
@@ -1039,6 +1497,32 @@ public class IdentifierMagicDB
     }
 
 
+    /** Checks the continuation entries in order, each entry with a
+     *  relative offset being located from the end of the data matched
+     *  by its parent entry. The input must be at the end of the data
+     *  matched by the main entry.
+     */
+    private boolean compareNestedEntries(DataInput input, long length, MagicEntry entry, int[][] searchResults) throws IOException
+    {
+      long[] ends = new long[entry.matchEntries.size() + 1];
+      MagicEntry additionalEntry;
+      int i;
+
+      // The end of the data matched by the main entry comes first
+      ends[0] = streamPosition(input, length);
+      for (i = 0; i < entry.matchEntries.size(); i++)
+      {
+           additionalEntry = (MagicEntry)entry.matchEntries.get(i);
+           if (seekInFile(additionalEntry,input,length,ends[additionalEntry.parentIndex + 1])==false)
+               return false;
+           if (matchValue(input, length, additionalEntry, searchResults)==false)
+               return false;
+           ends[i + 1] = streamPosition(input, length);
+      }
+      return true;
+    }
+
+
     private long streamAvailable(DataInput input) throws IOException
     {
         if (input instanceof InputStream)
@@ -1050,12 +1534,47 @@ public class IdentifierMagicDB
         {
             RandomAccessFile r = (RandomAccessFile)input;
             return r.length()-r.getFilePointer();
+        } else
+        if (input instanceof RangeDataInput)
+        {
+            return ((RangeDataInput)input).available();
+        } else
+        if (input instanceof SliceDataInput)
+        {
+            return ((SliceDataInput)input).available();
         }
         return 0;
     }
 
 
 
+    /** Returns the current position in the input.
+     *
+     * @param length The cached length of the input. An input stream
+     *   only gives the number of bytes up to its end.
+     */
+    private long streamPosition(DataInput input, long length) throws IOException
+    {
+        if (input instanceof InputStream)
+        {
+            InputStream is = (InputStream)input;
+            return length - is.available();
+        } else
+        if (input instanceof RandomAccessFile)
+        {
+            return ((RandomAccessFile)input).getFilePointer();
+        } else
+        if (input instanceof RangeDataInput)
+        {
+            return ((RangeDataInput)input).getFilePointer();
+        } else
+        if (input instanceof SliceDataInput)
+        {
+            return ((SliceDataInput)input).getFilePointer();
+        }
+        return 0;
+    }
+
     private long streamLength(DataInput input) throws IOException
     {
         if (input instanceof InputStream)
@@ -1067,6 +1586,14 @@ public class IdentifierMagicDB
         {
             RandomAccessFile r = (RandomAccessFile)input;
             return r.length();
+        } else
+        if (input instanceof RangeDataInput)
+        {
+            return ((RangeDataInput)input).length();
+        } else
+        if (input instanceof SliceDataInput)
+        {
+            return ((SliceDataInput)input).length();
         }
         return 0;
     }
@@ -1091,6 +1618,14 @@ public class IdentifierMagicDB
         {
             RandomAccessFile r = (RandomAccessFile)input;
             r.seek(pos);
+        } else
+        if (input instanceof RangeDataInput)
+        {
+            ((RangeDataInput)input).seek(pos);
+        } else
+        if (input instanceof SliceDataInput)
+        {
+            ((SliceDataInput)input).seek(pos);
         }
     }
 
@@ -1103,7 +1638,7 @@ public class IdentifierMagicDB
      * @param s The string to parse containing the properties in magic format
      * @return The properties of the resource
      */
-    private void extractProperties(String s, Properties prop) throws IOException
+    private void extractProperties(String s, IdentificationResult result) throws IOException
     {
         String[] propTokens;
         int startPos;
@@ -1171,132 +1706,1166 @@ public class IdentifierMagicDB
                 key = key.trim();
                 value = value.trim();
                 // Get the standard property name
-                for (j = 0; j < INTERNAL_PROPERTY_TABLE.length; j++)
-                {
-                    if (key.equalsIgnoreCase(INTERNAL_PROPERTY_TABLE[j]))
-                    {
-                        // Evaluate the expression as required.
-                        if (INTERNAL_PROPERTY_EXPRESSION[j]==Integer.TYPE)
-                        {
-                            try
-                            {
-                                value = Integer.toString(InfixPostfixEvaluator.evalInfixAsInt(value));
-                            } catch (Exception e)
-                            {
-                                throw new NumberFormatException("Invalid numeric value");
-                            }
-                        }
-                        else
-                        if (INTERNAL_PROPERTY_EXPRESSION[j]==Float.TYPE)
-                        {
-                            try
-                            {
-                                value = Float.toString(InfixPostfixEvaluator.evalInfixAsFloat(value));
-                            } catch (Exception e)
-                            {
-                                throw new NumberFormatException("Invalid numeric value");
-                            }
-                        }
-                        key = STANDARD_PROPERTY_TABLE[j];
-                        break;
-                    }
-                }
-                prop.setProperty(key,value);
+                j = getPropertyIndex(key);
+                if (j != -1)
+                    setPropertyValue(result, j, value);
+                else
+                    result.setProperty(key,value);
             }
 
         // Set format comment of file
-        prop.setProperty(COMMENT_KEY, finalString);
+        result.setProperty(COMMENT_KEY, finalString);
     }
 
-    /** From the specified input, try to identify the resource and return
-     *  the filled property table.
-     *
-     * @param input The input that needs to be identified. The
-     *   stream should be set at correct position when entering this method.
-     * @param metadata The returned metadata, which can be one of the
-     *   key values. The metadata table is NOT cleared in this method,
-     *   it will simply overwrite existing properties.
-     * @return true if at least one property was set, otherwise returns false
-     * @throws IOException In case of I/O exception.
+    /** Returns the index in the property tables of the specified property
+     *  name of the magic database, or -1 if it is not a known property.
      */
-    public boolean loadMetadata(DataInput input, Properties metadata)  throws IOException
+    int getPropertyIndex(String key)
     {
-        MagicEntry entry;
-        LinkedList foundEntries;
         int i;
-        int largestIndex;
-        ByteBuffer magicObject;
-        MagicEntry entry1;
-        MagicEntry entry2;
-        String resultString;
+        for (i = 0; i < INTERNAL_PROPERTY_TABLE.length; i++)
+        {
+            if (key.equalsIgnoreCase(INTERNAL_PROPERTY_TABLE[i]))
+                return i;
+        }
+        return -1;
+    }
 
-        streamLength = streamLength(input);
-        foundEntries = new LinkedList();
+    /** Returns the name of the property at the specified index of the
+     *  property tables, as returned in the property table.
+     */
+    String getPropertyKey(int index)
+    {
+        return STANDARD_PROPERTY_TABLE[index];
+    }
 
-        for (i = 0; i < entries.size(); i++)
+    /** Returns the value of the property at the specified index of the
+     *  property tables, evaluating it if the property is an expression.
+     *
+     * @throws NumberFormatException If the expression is not valid.
+     */
+    String getPropertyValue(int index, String value)
+    {
+        // Evaluate the expression as required.
+        if (INTERNAL_PROPERTY_EXPRESSION[index]==Integer.TYPE)
         {
-            entry = (MagicEntry)entries.get(i);
             try
             {
-                // Check, did the seek was ok? No, then continue
-                // with next entry in the list.
-                if (seekInFile(entry, input)==false)
-                {
-                    streamSeek(input, 0);
-                    continue;
-                }
+                return Integer.toString(Expression.evaluateInt(value));
             } catch (Exception e)
             {
-                streamSeek(input,0);
-                continue;
+                throw new NumberFormatException("Invalid numeric value");
             }
-
-            try
-            {
-                magicObject = readData(input, entry);
-                if (compareValues(magicObject, entry.value, entry)==true)
-                {
-                   // Check all sub entry matches
-                   if (compareMatchEntries(input, entry)==true)
-                   {
-                       foundEntries.add(entry);
-                   } else
-                       continue;
-                }
-             }
-             // If this is an EOFException then this must surely not
-             // be this filetype.
-             catch (EOFException e)
-             {
-                 continue;
-             }
         }
-
-        // If we have found some matches. Do something about it.
-        if (foundEntries.size() > 0)
+        else
+        if (INTERNAL_PROPERTY_EXPRESSION[index]==Float.TYPE)
         {
-            // Now we shall classify according to the biggest signature length
-            // to get the result which is the most probable.
-            largestIndex = 0;
-            for (i = 0; i < foundEntries.size(); i++)
+            try
+            {
+                return Float.toString(Expression.evaluateFloat(value));
+            } catch (Exception e)
+            {
+                throw new NumberFormatException("Invalid numeric value");
+            }
+        }
+        return value;
+    }
+
+    /** Returns true if the property at the specified index of the
+     *  property tables is an expression.
+     */
+    boolean isPropertyExpression(int index)
+    {
+        return INTERNAL_PROPERTY_EXPRESSION[index] != null;
+    }
+
+    /** Sets the value of the property at the specified index of the
+     *  property tables, which is an expression, from its compiled
+     *  expression.
+     *
+     * @param slots The values of the slots of the expression, for which
+     *   {@link Expression#isEvaluable(String[])} returns true.
+     * @throws NumberFormatException If the expression is not valid.
+     */
+    void setPropertyValue(IdentificationResult result, int index, Expression expression, String[] slots)
+    {
+        try
+        {
+            if (INTERNAL_PROPERTY_EXPRESSION[index]==Integer.TYPE)
+                result.setIntProperty(STANDARD_PROPERTY_TABLE[index], expression.evaluateInt(slots));
+            else
+                result.setFloatProperty(STANDARD_PROPERTY_TABLE[index], expression.evaluateFloat(slots));
+        } catch (Exception e)
+        {
+            throw new NumberFormatException("Invalid numeric value");
+        }
+    }
+
+    /** Returns true if setting the value of the property at the specified
+     *  index of the property tables from its compiled expression cannot fail.
+     *
+     * @param slots The values of the slots of the expression, for which
+     *   {@link Expression#isEvaluable(String[])} returns true.
+     */
+    boolean canSetPropertyValue(int index, Expression expression, String[] slots)
+    {
+        if (INTERNAL_PROPERTY_EXPRESSION[index]==Float.TYPE)
+            return true;
+        return !expression.canFailInt(slots);
+    }
+
+    /** Sets the value of the property at the specified index of the
+     *  property tables, evaluating it if the property is an expression.
+     *
+     * @throws NumberFormatException If the expression is not valid.
+     */
+    void setPropertyValue(IdentificationResult result, int index, String value)
+    {
+        int intValue;
+        float floatValue;
+
+        if (INTERNAL_PROPERTY_EXPRESSION[index]==Integer.TYPE)
+        {
+            try
+            {
+                intValue = Expression.evaluateInt(value);
+            } catch (Exception e)
+            {
+                throw new NumberFormatException("Invalid numeric value");
+            }
+            result.setIntProperty(STANDARD_PROPERTY_TABLE[index], intValue);
+        }
+        else
+        if (INTERNAL_PROPERTY_EXPRESSION[index]==Float.TYPE)
+        {
+            try
+            {
+                floatValue = Expression.evaluateFloat(value);
+            } catch (Exception e)
+            {
+                throw new NumberFormatException("Invalid numeric value");
+            }
+            result.setFloatProperty(STANDARD_PROPERTY_TABLE[index], floatValue);
+        }
+        else
+            result.setProperty(STANDARD_PROPERTY_TABLE[index], value);
+    }
+
+    /** Verifies if the entry and all its continuation entries match
+     *  the input. A seek or read past the end of the input means that
+     *  the entry does not match.
+     */
+    private boolean matchEntry(DataInput input, long length, MagicEntry entry) throws IOException
+    {
+        return matchEntry(input, length, entry, null);
+    }
+
+    /** Verifies if the entry and all its continuation entries match
+     *  the input, sharing the searches with the other entries evaluated
+     *  for the same resource.
+     *
+     * @param searchResults The values already looked for in the resource,
+     *   see {@link #createSearchResults()}, or null.
+     */
+    private boolean matchEntry(DataInput input, long length, MagicEntry entry, int[][] searchResults) throws IOException
+    {
+        try
+        {
+            // Check, did the seek was ok? No, then continue
+            // with next entry in the list.
+            if (seekInFile(entry, input, length)==false)
+            {
+                streamSeek(input, 0);
+                return false;
+            }
+        } catch (DataUnavailableException e)
+        {
+            throw e;
+        } catch (Exception e)
+        {
+            streamSeek(input,0);
+            return false;
+        }
+
+        try
+        {
+            if (matchValue(input, length, entry, searchResults)==false)
+                return false;
+            // Check all sub entry matches
+            return compareMatchEntries(input, length, entry, searchResults);
+        }
+        // If this is an EOFException then this must surely not
+        // be this filetype.
+        catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
+    /** Fills the result with the description of the matched entry and
+     *  of its additional information entries.
+     */
+    private void describeEntry(DataInput input, long length, MagicEntry entry, IdentificationResult result) throws IOException
+    {
+        StringBuffer resultString;
+        ByteBuffer[] magicObjects;
+        long[] ends;
+        int i;
+
+        result.setEntry(entry);
+        ends = null;
+        if (entry.nestedEntries)
+        {
+            ends = new long[entry.extraMatchEntries.size() + 1];
+            ends[0] = getMatchEnd(input, length, entry);
+        }
+        if (entry.templates != null)
+        {
+            // The entries that cannot change the requested properties are
+            // only read if the description must be parsed.
+            magicObjects = new ByteBuffer[entry.extraMatchEntries.size()];
+            for (i = 0; i < magicObjects.length; i++)
+            {
+                if (isExtraRequested(entry, i, result))
+                    magicObjects[i] = readExtraInfo(input, length, entry, i, magicObjects, ends);
+            }
+            if (describeTemplate(entry, magicObjects, result))
+                return;
+            for (i = 0; i < magicObjects.length; i++)
+            {
+                if (!isExtraRequested(entry, i, result))
+                    magicObjects[i] = readExtraInfo(input, length, entry, i, magicObjects, ends);
+            }
+            // The values change how the description is parsed
+            resultString = new StringBuffer();
+            resultString.append(entry.description);
+            appendExtraInfo(entry, magicObjects, resultString);
+            extractProperties(resultString.toString(), result);
+            return;
+        }
+        if ((entry.extraMatchEntries == null) || (entry.extraMatchEntries.size() == 0))
+        {
+            extractProperties(entry.description, result);
+            return;
+        }
+        // Get the final description string
+        resultString = new StringBuffer();
+        resultString.append(entry.description);
+        if (ends != null)
+        {
+            magicObjects = new ByteBuffer[entry.extraMatchEntries.size()];
+            for (i = 0; i < magicObjects.length; i++)
+            {
+                magicObjects[i] = readExtraInfo(input, length, entry, i, magicObjects, ends);
+            }
+            appendExtraInfo(entry, magicObjects, resultString);
+        } else
+        {
+            for (i = 0; i < entry.extraMatchEntries.size();i++)
+            {
+                getExtraInfo(input,length,(MagicEntry)entry.extraMatchEntries.get(i),resultString);
+            }
+        }
+        extractProperties(resultString.toString(), result);
+    }
+
+    /** Appends the values read for the additional information entries of
+     *  the entry to the buffer, or "null" for an entry that does not
+     *  match. Nothing is appended for a nested entry whose parent entry
+     *  did not match.
+     */
+    private void appendExtraInfo(MagicEntry entry, ByteBuffer[] magicObjects, StringBuffer buffer)
+    {
+        MagicEntry extraEntry;
+        int i;
+
+        for (i = 0; i < magicObjects.length; i++)
+        {
+            extraEntry = (MagicEntry)entry.extraMatchEntries.get(i);
+            if (magicObjects[i] == null)
+            {
+                if ((extraEntry.parentIndex == -1) || (magicObjects[extraEntry.parentIndex] != null))
+                    buffer.append((String)null);
+            } else
+            if (extraEntry.isNumeric())
+                extraEntry.format.format(buffer, magicObjects[i].getLong(0));
+            else
+                extraEntry.format.format(buffer, new String(magicObjects[i].array()));
+        }
+    }
+
+    /** Returns the position of the end of the data matched by the entry,
+     *  without its continuation entries. The entry must match the input.
+     */
+    private long getMatchEnd(DataInput input, long length, MagicEntry entry) throws IOException
+    {
+        seekInFile(entry, input, length);
+        matchValue(input, length, entry, null);
+        return streamPosition(input, length);
+    }
+
+    /** Returns true if the additional information entry at the specified
+     *  index of the entry can change the properties requested by the result.
+     */
+    private boolean isExtraRequested(MagicEntry entry, int index, IdentificationResult result)
+    {
+        if (result.getRequestedProperties() == IdentificationResult.PROPERTY_ALL)
+            return true;
+        return result.isRequested(entry.extraProperties[index]);
+    }
+
+    /** Fills the result with the compiled properties of the entry, from
+     *  the values read by its additional information entries.
+     *  Returns false if the properties cannot be compiled for these values,
+     *  in which case the description must be parsed.
+     */
+    private boolean describeTemplate(MagicEntry entry, ByteBuffer[] magicObjects, IdentificationResult result)
+    {
+        MagicEntry extraEntry;
+        PropertyTemplate template;
+        String[] slots;
+        String value;
+        int slotCount;
+        int mask;
+        int i;
+        int j;
+
+        mask = 0;
+        slotCount = 0;
+        for (i = 0; i < magicObjects.length; i++)
+        {
+            if (magicObjects[i] != null)
+            {
+                mask |= 1 << i;
+                slotCount += ((MagicEntry)entry.extraMatchEntries.get(i)).format.getPartCount();
+            }
+        }
+        template = entry.templates[mask];
+        if (template == null)
+            return false;
+        slots = new String[slotCount];
+        slotCount = 0;
+        for (i = 0; i < magicObjects.length; i++)
+        {
+            if (magicObjects[i] == null)
+                continue;
+            extraEntry = (MagicEntry)entry.extraMatchEntries.get(i);
+            value = null;
+            if (!extraEntry.isNumeric())
+                value = new String(magicObjects[i].array());
+            for (j = 0; j < extraEntry.format.getPartCount(); j++)
+            {
+                if (extraEntry.format.getLiteral(j) != null)
+                    continue;
+                if (value == null)
+                    slots[slotCount++] = extraEntry.format.formatPart(j, magicObjects[i].getLong(0));
+                else
+                    slots[slotCount++] = extraEntry.format.formatPart(j, value);
+            }
+        }
+        return template.apply(slots, result);
+    }
+
+    /** Compiles the properties of the description of the entries for each
+     *  combination of matching additional information entries.
+     */
+    private void compileTemplates()
+    {
+        MagicEntry entry;
+        MagicEntry extraEntry;
+        LinkedList pieces;
+        int slotCount;
+        int mask;
+        int i;
+        int j;
+        int k;
+
+        for (i = 0; i < entryTable.length; i++)
+        {
+            entry = entryTable[i];
+            if (entry.extraMatchEntries.size() > MAX_TEMPLATE_EXTRA_COUNT)
+                continue;
+            if ((entry.description == null) && (entry.extraMatchEntries.size() == 0))
+                continue;
+            for (j = 0; j < entry.extraMatchEntries.size(); j++)
+            {
+                extraEntry = (MagicEntry)entry.extraMatchEntries.get(j);
+                if (!extraEntry.format.isCompiled(extraEntry.isNumeric()))
+                    break;
+            }
+            if (j < entry.extraMatchEntries.size())
+                continue;
+            entry.templates = new PropertyTemplate[1 << entry.extraMatchEntries.size()];
+            for (mask = 0; mask < entry.templates.length; mask++)
+            {
+                pieces = new LinkedList();
+                pieces.add(String.valueOf(entry.description));
+                slotCount = 0;
+                for (j = 0; j < entry.extraMatchEntries.size(); j++)
+                {
+                    extraEntry = (MagicEntry)entry.extraMatchEntries.get(j);
+                    if ((mask & (1 << j)) == 0)
+                    {
+                        // A nested entry is not read if its parent did not match
+                        if ((extraEntry.parentIndex == -1) || ((mask & (1 << extraEntry.parentIndex)) != 0))
+                            pieces.add("null");
+                        continue;
+                    }
+                    for (k = 0; k < extraEntry.format.getPartCount(); k++)
+                    {
+                        if (extraEntry.format.getLiteral(k) != null)
+                            pieces.add(extraEntry.format.getLiteral(k));
+                        else
+                            pieces.add(new Integer(slotCount++));
+                    }
+                }
+                entry.templates[mask] = PropertyTemplate.compile(this, pieces.toArray(), slotCount);
+            }
+            entry.extraProperties = getExtraProperties(entry);
+        }
+    }
+
+    /** Returns the properties that each additional information entry of the
+     *  entry can change, from its templates. An entry changes a property if
+     *  one of its values is part of the property, or if the property is not
+     *  the same when the entry matches and when it does not. The parent
+     *  of a nested entry can also change the properties of the nested entry.
+     */
+    private int[] getExtraProperties(MagicEntry entry)
+    {
+        int extraCount = entry.extraMatchEntries.size();
+        int[] extraProperties = new int[extraCount];
+        String[][] sources = new String[entry.templates.length][];
+        MagicEntry extraEntry;
+        String[] slotNames;
+        int slotCount;
+        int property;
+        int mask;
+        int i;
+        int j;
+        int k;
+
+        for (mask = 0; mask < entry.templates.length; mask++)
+        {
+            if (entry.templates[mask] == null)
+            {
+                Arrays.fill(extraProperties, IdentificationResult.PROPERTY_ALL);
+                return extraProperties;
+            }
+            // Each slot is named after its entry, so that the same value
+            // has the same name in all the templates.
+            slotCount = 0;
+            for (j = 0; j < extraCount; j++)
+            {
+                if ((mask & (1 << j)) != 0)
+                    slotCount += ((MagicEntry)entry.extraMatchEntries.get(j)).format.getPartCount();
+            }
+            slotNames = new String[slotCount];
+            slotCount = 0;
+            for (j = 0; j < extraCount; j++)
+            {
+                if ((mask & (1 << j)) == 0)
+                    continue;
+                extraEntry = (MagicEntry)entry.extraMatchEntries.get(j);
+                for (k = 0; k < extraEntry.format.getPartCount(); k++)
+                {
+                    if (extraEntry.format.getLiteral(k) == null)
+                        slotNames[slotCount++] = "\0" + j + "\0";
+                }
+            }
+            sources[mask] = new String[IdentificationResult.PROPERTY_COUNT];
+            for (i = 0; i < IdentificationResult.PROPERTY_COUNT; i++)
+            {
+                sources[mask][i] = entry.templates[mask].getSource(1 << i, slotNames);
+                if (sources[mask][i] == null)
+                {
+                    Arrays.fill(extraProperties, IdentificationResult.PROPERTY_ALL);
+                    return extraProperties;
+                }
+                for (j = 0; j < extraCount; j++)
+                {
+                    if (sources[mask][i].indexOf("\0" + j + "\0") >= 0)
+                        extraProperties[j] |= 1 << i;
+                }
+            }
+        }
+        for (mask = 0; mask < entry.templates.length; mask++)
+        {
+            for (j = 0; j < extraCount; j++)
+            {
+                if ((mask & (1 << j)) == 0)
+                    continue;
+                for (i = 0; i < IdentificationResult.PROPERTY_COUNT; i++)
+                {
+                    property = 1 << i;
+                    if (!sources[mask][i].equals(sources[mask & ~(1 << j)][i]))
+                        extraProperties[j] |= property;
+                }
+            }
+        }
+        // A nested entry can only be read after its parent entry
+        for (j = extraCount - 1; j >= 0; j--)
+        {
+            extraEntry = (MagicEntry)entry.extraMatchEntries.get(j);
+            if (extraEntry.parentIndex != -1)
+                extraProperties[extraEntry.parentIndex] |= extraProperties[j];
+        }
+        return extraProperties;
+    }
+
+    /** Returns true if a match of the entry at index candidate of the entry
+     *  table is ranked before a match of the entry at index current.
+     *  The entry with the biggest signature length wins, and the first
+     *  one in the database wins if they have the same length.
+     */
+    boolean isRankedBefore(int candidate, int current)
+    {
+        if (entryTable[candidate].signatureLength > entryTable[current].signatureLength)
+            return true;
+        if (entryTable[candidate].signatureLength < entryTable[current].signatureLength)
+            return false;
+        return candidate < current;
+    }
+
+    /** Sorts the entries by rank, as {@link #isRankedBefore(int, int)}. */
+    private void computeEvaluationOrder()
+    {
+        long[] keys = new long[entryTable.length];
+        int i;
+
+        // The key sorts by decreasing signature length, then by index
+        for (i = 0; i < entryTable.length; i++)
+        {
+            keys[i] = ((long)(Integer.MAX_VALUE - entryTable[i].signatureLength) << 32) | i;
+        }
+        Arrays.sort(keys);
+        evaluationOrder = new int[entryTable.length];
+        for (i = 0; i < entryTable.length; i++)
+        {
+            evaluationOrder[i] = (int)(keys[i] & 0x7FFFFFFF);
+        }
+    }
+
+    /** Sorts the continuation entries of each entry so that the checks
+     *  which are the cheapest and the most likely to fail are done first.
+     *  Since all the continuation entries must match, their order does
+     *  not change the result, only the number of reads done to find that
+     *  an entry does not match. The continuation entries of an entry that
+     *  has nested entries or relative offsets are kept in their order.
+     *
+     *  <p>The checks are sorted by increasing cost / (1 - p), where p is
+     *  the estimated probability that the check succeeds, which gives the
+     *  lowest expected cost for a sequence of checks that stops at the
+     *  first failure.</p>
+     */
+    private void orderMatchEntries()
+    {
+        LinkedList list;
+        MagicEntry[] checks;
+        double[] ranks;
+        MagicEntry check;
+        double rank;
+        int i;
+        int j;
+        int k;
+
+        for (i = 0; i < entryTable.length; i++)
+        {
+            list = entryTable[i].matchEntries;
+            // Nested entries are evaluated after their parent entry
+            if ((list.size() < 2) || entryTable[i].nestedEntries)
+                continue;
+            checks = (MagicEntry[])list.toArray(new MagicEntry[list.size()]);
+            ranks = new double[checks.length];
+            for (j = 0; j < checks.length; j++)
+            {
+                ranks[j] = getCheckRank(entryTable[i], checks[j]);
+            }
+            // Stable insertion sort, the lists are short
+            for (j = 1; j < checks.length; j++)
+            {
+                check = checks[j];
+                rank = ranks[j];
+                for (k = j - 1; (k >= 0) && (ranks[k] > rank); k--)
+                {
+                    checks[k + 1] = checks[k];
+                    ranks[k + 1] = ranks[k];
+                }
+                checks[k + 1] = check;
+                ranks[k + 1] = rank;
+            }
+            list.clear();
+            for (j = 0; j < checks.length; j++)
+            {
+                list.add(checks[j]);
+            }
+        }
+    }
+
+    /** Returns the estimated cost of a continuation check divided by its
+     *  probability to fail.
+     *
+     * @param parent The entry containing the check.
+     * @param check The continuation entry.
+     */
+    private double getCheckRank(MagicEntry parent, MagicEntry check)
+    {
+        double cost;
+        double success;
+        long mask;
+        int bits;
+
+        // Each check costs a seek and a read, reads far from the data
+        // already read by the entry, relative to the end of the data, or
+        // through an indirect offset cost more.
+        cost = 1.0 + getEntryReadLength(check) / 8.0;
+        if (check.extraOffset != -1)
+            cost += 16.0;
+        else
+        if (check.offset < 0)
+            cost += 4.0;
+        else
+        if (Math.abs(check.offset - parent.offset) > 512)
+            cost += 4.0;
+
+        if (check.isNumeric())
+        {
+            // Number of bits of the value compared
+            bits = 0;
+            for (mask = check.andValue & ((1L << (8 * getEntryReadLength(check))) - 1); mask != 0; mask >>>= 1)
+            {
+                bits += (int)(mask & 1);
+            }
+            switch (check.comparisonOperator)
+            {
+                case '=':
+                    success = Math.pow(2.0, -bits);
+                    break;
+                case '!':
+                case '^':
+                    success = 1.0 - Math.pow(2.0, -bits);
+                    break;
+                case 'x':
+                    success = 1.0;
+                    break;
+                default:
+                    success = 0.5;
+                    break;
+            }
+        } else
+        {
+            switch (check.comparisonOperator)
+            {
+                case '=':
+                    success = Math.pow(2.0, -8.0 * check.value.limit());
+                    // A search can match at each offset of its range
+                    if (check.type == MagicEntry.TYPE_SEARCH)
+                        success = Math.min(1.0, success * check.searchRange);
+                    break;
+                case '!':
+                    success = 1.0 - Math.pow(2.0, -8.0 * check.value.limit());
+                    break;
+                case 'x':
+                    success = 1.0;
+                    break;
+                default:
+                    success = 0.5;
+                    break;
+            }
+        }
+        if (success >= 1.0)
+            return Double.MAX_VALUE;
+        return cost / (1.0 - success);
+    }
+
+    /** Returns the indexes in the entry table of the entries from the
+     *  best ranked to the worst ranked.
+     */
+    int[] getEvaluationOrder()
+    {
+        return evaluationOrder;
+    }
+
+    /** Returns the parsed entries in database order. */
+    MagicEntry[] getEntryTable()
+    {
+        return entryTable;
+    }
+
+    /** Evaluates the entries of the table whose state is still
+     *  ENTRY_UNKNOWN on an input where only part of the data might be
+     *  available. The entries which need data that is not available
+     *  stay unknown, and the position and length of the missing data
+     *  are stored in the missing tables. A negative position is an
+     *  offset from the end of the data, whose length is not known.
+     *
+     *  <p>The entries are evaluated in rank order, and the evaluation
+     *  stops at the first entry that matches, since the entries after
+     *  it cannot give a better match. These entries stay unknown.</p>
+     *
+     * @param input The input containing the data available.
+     * @param states The state of each entry of the entry table.
+     * @param missingPositions The position of the missing data for each entry.
+     * @param missingLengths The length of the missing data for each entry.
+     */
+    void evaluateEntries(RangeDataInput input, byte[] states, long[] missingPositions, int[] missingLengths) throws IOException
+    {
+        evaluateEntries(input, 0, entryTable.length, states, missingPositions, missingLengths);
+    }
+
+    /** Evaluates the entries from position from (inclusive) to position
+     *  to (exclusive) of the evaluation order, as
+     *  {@link #evaluateEntries(RangeDataInput, byte[], long[], int[])}.
+     *  Several threads can evaluate different parts of the order at the
+     *  same time, each one with its own input.
+     */
+    void evaluateEntries(RangeDataInput input, int from, int to, byte[] states, long[] missingPositions, int[] missingLengths) throws IOException
+    {
+        long length;
+        int i;
+        int j;
+
+        length = streamLength(input);
+        for (j = from; j < to; j++)
+        {
+            i = evaluationOrder[j];
+            if (states[i] == ENTRY_MATCH)
+                break;
+            if (states[i] != ENTRY_UNKNOWN)
+                continue;
+            try
+            {
+                if (matchEntry(input, length, entryTable[i]))
+                {
+                    states[i] = ENTRY_MATCH;
+                    break;
+                }
+                states[i] = ENTRY_NO_MATCH;
+            } catch (DataUnavailableException e)
+            {
+                missingPositions[i] = e.position;
+                missingLengths[i] = e.length;
+            }
+        }
+    }
+
+    /** Verifies if the entry at the specified index of the entry table
+     *  and all its continuation entries match the input.
+     */
+    boolean matchEntry(DataInput input, int index) throws IOException
+    {
+        return matchEntry(input, streamLength(input), entryTable[index]);
+    }
+
+    /** Verifies if the entry at the specified index of the entry table
+     *  and all its continuation entries match the input, whose length
+     *  has been retrieved with {@link #getLength(DataInput)}.
+     */
+    boolean matchEntry(DataInput input, long length, int index) throws IOException
+    {
+        return matchEntry(input, length, entryTable[index]);
+    }
+
+    /** Returns the length of the input, as used to evaluate the entries. */
+    long getLength(DataInput input) throws IOException
+    {
+        return streamLength(input);
+    }
+
+    /** Copies all the properties of a result into the property table of
+     *  the caller, overwriting the existing properties with the same keys.
+     */
+    static void copyProperties(Properties result, Properties metadata)
+    {
+        Enumeration keys;
+        String key;
+
+        keys = result.keys();
+        while (keys.hasMoreElements())
+        {
+            key = (String)keys.nextElement();
+            metadata.setProperty(key, result.getProperty(key));
+        }
+    }
+
+    /** Fills the property table for the matched entry at the specified
+     *  index of the entry table, with the input length retrieved with
+     *  {@link #getLength(DataInput)}.
+     */
+    void describeEntry(DataInput input, long length, int index, Properties metadata) throws IOException
+    {
+        IdentificationResult result = new IdentificationResult();
+        try
+        {
+            describeEntry(input, length, entryTable[index], result);
+        } finally
+        {
+            result.toProperties(metadata);
+        }
+    }
+
+    /** Returns the only bytes at the offset of the entry for which the
+     *  entry check succeeds, or null if there is no such single sequence
+     *  of bytes, or if the entry does not have a direct offset from the
+     *  start of the resource.
+     */
+    byte[] getEntryPattern(MagicEntry entry)
+    {
+        RangeDataInput input;
+        long mask;
+        byte[] b;
+        int length;
+        int i;
+
+        if ((entry.extraOffset != -1) || entry.relativeOffset || (entry.offset < 0) ||
+            (entry.comparisonOperator != '='))
+            return null;
+        if (entry.type == MagicEntry.TYPE_STRING)
+        {
+            length = entry.value.limit();
+            b = new byte[length];
+            for (i = 0; i < length; i++)
+            {
+                b[i] = entry.value.get(i);
+            }
+        } else
+        if (entry.isNumeric())
+        {
+            // All the bits read must be compared for the value to come
+            // from a single sequence of bytes.
+            length = getEntryReadLength(entry);
+            mask = (1L << (8 * length)) - 1;
+            if ((entry.andValue & mask) != mask)
+                return null;
+            b = new byte[length];
+            for (i = 0; i < length; i++)
+            {
+                if ((entry.type == MagicEntry.TYPE_LESHORT) || (entry.type == MagicEntry.TYPE_LELONG))
+                    b[i] = (byte)(entry.value.getLong(0) >>> (8 * i));
+                else
+                    b[i] = (byte)(entry.value.getLong(0) >>> (8 * (length - 1 - i)));
+            }
+        } else
+            return null;
+        if (length == 0)
+            return null;
+        // Verify with the engine itself, values read are sign extended
+        input = new RangeDataInput();
+        input.addRange(entry.offset, b, 0, length);
+        input.setLength(entry.offset + length);
+        try
+        {
+            if (matchContinuation(input, entry))
+                return b;
+        } catch (IOException e)
+        {
+        }
+        return null;
+    }
+
+    /** Verifies if a single continuation entry matches the input. A seek
+     *  or read past the end of the input means that it does not match.
+     */
+    boolean matchContinuation(RangeDataInput input, MagicEntry entry) throws IOException
+    {
+        long length;
+
+        try
+        {
+            length = streamLength(input);
+            if (seekInFile(entry, input, length) == false)
+                return false;
+            return matchValue(input, length, entry, null);
+        } catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
+    /** Fills the property table for the matched entry at the specified
+     *  index of the entry table, from an input where only part of the
+     *  data might be available.
+     *
+     * @throws DataUnavailableException if some additional information entry
+     *   needs data that is not available.
+     */
+    void describeEntry(DataInput input, int index, Properties metadata) throws IOException
+    {
+        describeEntry(input, streamLength(input), index, metadata);
+    }
+
+    /** Fills the property table with the information that is part of the
+     *  description of the entry at the specified index, without reading
+     *  any data.
+     */
+    void describeEntry(int index, Properties metadata) throws IOException
+    {
+        MagicEntry entry = entryTable[index];
+        IdentificationResult result = new IdentificationResult();
+        try
+        {
+            if ((entry.templates != null) && (entry.extraMatchEntries.size() == 0) && (entry.templates[0] != null))
             {
-               entry1 = (MagicEntry)foundEntries.get(i);
-               entry2 = (MagicEntry)foundEntries.get(largestIndex);
-               if (entry1.signatureLength > entry2.signatureLength)
-                   largestIndex = i;
+                if (entry.templates[0].apply(null, result))
+                    return;
             }
+            extractProperties(entry.description, result);
+        } finally
+        {
+            result.toProperties(metadata);
+        }
+    }
+
+    /** Returns the length of the data at the start of a resource that
+     *  can be read by the entries that have a direct offset.
+     */
+    long getHeadLength()
+    {
+        return headLength;
+    }
+
+    /** Returns the length of the data at the end of a resource that
+     *  can be read by the entries that are relative to the end.
+     */
+    long getTailLength()
+    {
+        return tailLength;
+    }
 
-            // Get the final description string
-            entry1 = (MagicEntry)foundEntries.get(largestIndex);
-            resultString = entry1.description;
-            if ((entry1.extraMatchEntries != null) && (entry1.extraMatchEntries.size() >0))
+    /** Computes the head and tail lengths from all the entries. */
+    private void computeExtents()
+    {
+        MagicEntry entry;
+        LinkedList list;
+        long extent;
+        int i;
+        int j;
+        int k;
+
+        headLength = 0;
+        tailLength = 0;
+        for (i = 0; i < entryTable.length; i++)
+        {
+            for (k = 0; k < 2; k++)
             {
-                for (i = 0; i < entry1.extraMatchEntries.size();i++)
+                list = (k == 0) ? entryTable[i].matchEntries : entryTable[i].extraMatchEntries;
+                for (j = -1; j < list.size(); j++)
                 {
-                    resultString = resultString + getExtraInfo(input,(MagicEntry)entry1.extraMatchEntries.get(i));
+                    if (j == -1)
+                    {
+                        if (k != 0)
+                            continue;
+                        entry = entryTable[i];
+                    } else
+                        entry = (MagicEntry)list.get(j);
+                    extent = getEntryExtent(entry);
+                    if (extent == Long.MAX_VALUE)
+                        continue;
+                    if (extent < 0)
+                        tailLength = Math.max(tailLength, -extent);
+                    else
+                        headLength = Math.max(headLength, extent);
                 }
             }
-            extractProperties(resultString, metadata);
+        }
+    }
+
+    /** Computes the upper case of each ISO-8859-1 character in the same way
+     *  as the case insensitive strings of the database, so that the data
+     *  read does not have to be converted to a String.
+     */
+    private void computeUpperCaseTable() throws UnsupportedEncodingException
+    {
+        byte[] upperCase;
+        int c;
+
+        upperCaseTable = new int[256];
+        for (c = 0; c < 256; c++)
+        {
+            upperCase = new String(new byte[] { (byte)c }, "ISO8859_1").toUpperCase().getBytes("ISO8859_1");
+            if (upperCase.length == 1)
+                upperCaseTable[c] = upperCase[0] & 0xff;
+            else
+                upperCaseTable[c] = -1;
+        }
+    }
+
+    /** Converts the ISO-8859-1 characters to upper case in place.
+     *  Returns false without changing anything if a character has an
+     *  upper case of several characters.
+     */
+    private boolean toUpperCase(byte[] b)
+    {
+        int i;
+
+        for (i = 0; i < b.length; i++)
+        {
+            if (upperCaseTable[b[i] & 0xff] == -1)
+                return false;
+        }
+        for (i = 0; i < b.length; i++)
+        {
+            b[i] = (byte)upperCaseTable[b[i] & 0xff];
+        }
+        return true;
+    }
+
+    /** Finds the entries whose checks only read data within the quick
+     *  header, at direct offsets.
+     */
+    private void computeQuickEntries()
+    {
+        LinkedList list;
+        long extent;
+        int i;
+        int j;
+
+        quickEntries = new boolean[entryTable.length];
+        for (i = 0; i < entryTable.length; i++)
+        {
+            list = entryTable[i].matchEntries;
+            quickEntries[i] = true;
+            for (j = -1; (j < list.size()) && quickEntries[i]; j++)
+            {
+                if (j == -1)
+                    extent = getEntryExtent(entryTable[i]);
+                else
+                    extent = getEntryExtent((MagicEntry)list.get(j));
+                if ((extent < 0) || (extent > QUICK_HEADER_LENGTH))
+                    quickEntries[i] = false;
+            }
+        }
+    }
+
+    /** Sets if the quick mode is used. In quick mode, the start of a
+     *  resource is read at once, and the entries that only check this
+     *  data are evaluated from it first. The other entries, such as
+     *  entries with indirect offsets or offsets relative to the end,
+     *  are then only evaluated if they are ranked before the best quick
+     *  entry that matched. The result is the same in both modes. The
+     *  quick mode is used by default.
+     */
+    public void setQuickMode(boolean quickMode)
+    {
+        this.quickMode = quickMode;
+    }
+
+    /** Returns true if the quick mode is used. */
+    public boolean isQuickMode()
+    {
+        return quickMode;
+    }
+
+    /** Returns the offset of the end of the data that can be read by this
+     *  entry, a negative offset from the end of the data if the entry
+     *  is relative to the end, or Long.MAX_VALUE if this is an indirect
+     *  offset or an offset relative to the parent entry, which cannot be
+     *  known before reading the data.
+     */
+    long getEntryExtent(MagicEntry entry)
+    {
+        if ((entry.extraOffset != -1) || entry.relativeOffset)
+            return Long.MAX_VALUE;
+        if (entry.offset < 0)
+            return entry.offset;
+        return entry.offset + getEntryReadLength(entry);
+    }
+
+    /** Returns the number of bytes read by this entry at its offset. */
+    int getEntryReadLength(MagicEntry entry)
+    {
+        int length;
+
+        switch (entry.type)
+        {
+            case MagicEntry.TYPE_BYTE:
+                length = 1;
+                break;
+            case MagicEntry.TYPE_LESHORT:
+            case MagicEntry.TYPE_BESHORT:
+                length = 2;
+                break;
+            case MagicEntry.TYPE_LELONG:
+            case MagicEntry.TYPE_BELONG:
+                length = 4;
+                break;
+            case MagicEntry.TYPE_SEARCH:
+                length = entry.value.limit() + entry.searchRange - 1;
+                break;
+            default:
+                if (((entry.comparisonOperator == 'x') || (entry.comparisonOperator == '>')) &&
+                    (entry.description != null))
+                    length = getFormatStringLength(entry.description);
+                else
+                    length = entry.value.limit();
+                break;
+        }
+        return length;
+    }
+
+    /** From the specified input, try to identify the resource and return
+     *  the filled property table.
+     *
+     * @param input The input that needs to be identified. The
+     *   stream should be set at correct position when entering this method.
+     * @param metadata The returned metadata, which can be one of the
+     *   key values. The metadata table is NOT cleared in this method,
+     *   it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(DataInput input, Properties metadata)  throws IOException
+    {
+        IdentificationResult result = new IdentificationResult();
+        try
+        {
+            return identify(input, result);
+        } finally
+        {
+            result.toProperties(metadata);
+        }
+    }
+
+    /** From the specified input, try to identify the resource and fill
+     *  the typed result.
+     *
+     * @param input The input that needs to be identified. The
+     *   stream should be set at correct position when entering this method.
+     * @param result The returned result, which is reset first.
+     * @return true if the resource was identified, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean identify(DataInput input, IdentificationResult result) throws IOException
+    {
+        int[][] searchResults;
+        int i;
+        int largestIndex;
+        long length;
+
+        result.reset();
+        length = streamLength(input);
+        largestIndex = -1;
+
+        if (quickMode && !(input instanceof RangeDataInput))
+            return identifyQuick(input, length, result);
+        searchResults = createSearchResults();
+
+        // The entries are evaluated from the biggest signature length, so
+        // the first match is the most probable result, and no other
+        // entry can give a better one.
+        for (i = 0; i < evaluationOrder.length; i++)
+        {
+            if (matchEntry(input, length, entryTable[evaluationOrder[i]], searchResults))
+            {
+                largestIndex = evaluationOrder[i];
+                break;
+            }
+        }
+
+        // If we have found some matches. Do something about it.
+        if (largestIndex != -1)
+        {
+            describeEntry(input, length, entryTable[largestIndex], result);
             return true;
         }
             /*
@@ -1315,6 +2884,157 @@ public class IdentifierMagicDB
 
     }
 
+    /** From the specified input, finds the matching entries with the best
+     *  rank, and fills one result for each of them, the best one first.
+     *  The first result is the one given by {@link #identify(DataInput, IdentificationResult)}.
+     *  Since the entries are evaluated by rank, the evaluation stops once
+     *  enough entries have matched, and only the matches that are returned
+     *  are described. The properties computed for each candidate are the
+     *  ones requested by its result, for example only the format identifier,
+     *  MIME type and suffix, and {@link IdentificationResult#getScore()}
+     *  gives its signature length. The quick mode is not used.
+     *
+     * @param input The input that needs to be identified. The
+     *   stream should be set at correct position when entering this method.
+     * @param results The returned results, which are reset first. Their
+     *   number is the maximum number of candidates.
+     * @return The number of candidates found, the results after them are
+     *   not identified. If a candidate after the best one cannot be
+     *   described, the candidates found before it are returned.
+     * @throws IOException In case of I/O exception before the best
+     *   candidate is described.
+     */
+    public int identifyCandidates(DataInput input, IdentificationResult[] results) throws IOException
+    {
+        int[][] searchResults = createSearchResults();
+        int count;
+        int i;
+        long length;
+
+        for (i = 0; i < results.length; i++)
+        {
+            results[i].reset();
+        }
+        length = streamLength(input);
+        count = 0;
+        for (i = 0; (i < evaluationOrder.length) && (count < results.length); i++)
+        {
+            try
+            {
+                if (matchEntry(input, length, entryTable[evaluationOrder[i]], searchResults) == false)
+                    continue;
+                describeEntry(input, length, entryTable[evaluationOrder[i]], results[count]);
+            } catch (DataUnavailableException e)
+            {
+                throw e;
+            } catch (IOException e)
+            {
+                if (count == 0)
+                    throw e;
+                // The candidates already found are returned
+                results[count].reset();
+                break;
+            } catch (RuntimeException e)
+            {
+                if (count == 0)
+                    throw e;
+                results[count].reset();
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /** Identifies the resource in quick mode. The quick entries are
+     *  evaluated from the header read in memory, then the other entries
+     *  ranked before the best quick entry that matched are evaluated
+     *  from the input.
+     */
+    private boolean identifyQuick(DataInput input, long length, IdentificationResult result) throws IOException
+    {
+        RangeDataInput header;
+        int[][] searchResults = createSearchResults();
+        byte[] b;
+        int quickPosition;
+        int largestIndex;
+        int i;
+
+        b = new byte[(int)Math.min(Math.max(length, 0), QUICK_HEADER_LENGTH)];
+        streamSeek(input, 0);
+        input.readFully(b);
+        header = new RangeDataInput();
+        header.addRange(0, b, 0, b.length);
+        header.setLength(length);
+
+        // First tier, the entries checking only the header
+        quickPosition = evaluationOrder.length;
+        for (i = 0; i < evaluationOrder.length; i++)
+        {
+            if (quickEntries[evaluationOrder[i]] && matchEntry(header, length, entryTable[evaluationOrder[i]], searchResults))
+            {
+                quickPosition = i;
+                break;
+            }
+        }
+
+        // Second tier, the other entries that can give a better match
+        largestIndex = -1;
+        for (i = 0; i < quickPosition; i++)
+        {
+            if (!quickEntries[evaluationOrder[i]] && matchEntry(input, length, entryTable[evaluationOrder[i]], searchResults))
+            {
+                largestIndex = evaluationOrder[i];
+                break;
+            }
+        }
+        if ((largestIndex == -1) && (quickPosition < evaluationOrder.length))
+            largestIndex = evaluationOrder[quickPosition];
+        if (largestIndex == -1)
+            return false;
+        describeEntry(input, length, entryTable[largestIndex], result);
+        return true;
+    }
+
+    /** Identifies a part of a file as if it was a standalone resource.
+     *  All offsets are relative to the start of the part, and the
+     *  offsets relative to the end use the end of the part. The data is
+     *  read directly from the file, which can be shared by several
+     *  parts identified one after the other.
+     *
+     * @param file The file containing the part. Its file pointer is
+     *   changed by this method.
+     * @param start The position of the start of the part in the file.
+     * @param length The length of the part.
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(RandomAccessFile file, long start, long length, Properties metadata) throws IOException
+    {
+        return loadMetadata(new SliceDataInput(file, start, length), metadata);
+    }
+
+    /** Identifies a part of a buffer as if it was a standalone resource,
+     *  without copying it. All offsets are relative to the start of the
+     *  part, and the offsets relative to the end use the end of the part.
+     *
+     * @param b The buffer containing the part.
+     * @param off The offset of the part in the buffer.
+     * @param len The length of the part.
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(byte[] b, int off, int len, Properties metadata) throws IOException
+    {
+        if ((off < 0) || (len < 0) || (off + len > b.length))
+            throw new IllegalArgumentException("Error: Invalid buffer part");
+        return loadMetadata(new RangeDataInput(b, off, len), metadata);
+    }
+
 
 }
 
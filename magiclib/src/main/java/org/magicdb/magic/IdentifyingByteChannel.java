@@ -0,0 +1,175 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Properties;
+
+/** Writable channel that identifies the data that is written through it.
+ *  All the data is passed unchanged to the underlying channel, while the
+ *  bytes that are written are given to an {@link IncrementalIdentifier},
+ *  so that a produced resource can be identified without being read
+ *  again once written.
+ *
+ *  <p>The result is final once the channel is closed. Once the result
+ *  is final, the data is no longer examined.</p>
+ *
+ *  <p>An error during the identification does not stop the data from
+ *  being written, it only means that the resource is not identified.</p>
+ */
+public class IdentifyingByteChannel implements WritableByteChannel
+{
+    private WritableByteChannel channel;
+    private IncrementalIdentifier identifier;
+    /** Indicates that no more data needs to be given to the identifier */
+    private boolean identified;
+    private IOException identificationException;
+    /** Buffer used to copy data from buffers that are not backed by an array */
+    private byte[] copyBuffer;
+
+    /** Creates an identifying channel.
+     *
+     * @param channel The channel to write the data to.
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public IdentifyingByteChannel(WritableByteChannel channel, IdentifierMagicDB identifier)
+    {
+        super();
+        this.channel = channel;
+        this.identifier = new IncrementalIdentifier(identifier);
+    }
+
+    public int write(ByteBuffer src) throws IOException
+    {
+        int position = src.position();
+        int count = channel.write(src);
+        int length;
+        ByteBuffer written;
+
+        if ((identified == false) && (count > 0))
+        {
+            if (src.hasArray())
+            {
+                feed(src.array(), src.arrayOffset() + position, count);
+            } else
+            {
+                // Copy the written bytes without changing the buffer
+                written = src.duplicate();
+                written.position(position);
+                if (copyBuffer == null)
+                    copyBuffer = new byte[4096];
+                while ((count > 0) && (identified == false))
+                {
+                    length = Math.min(count, copyBuffer.length);
+                    written.get(copyBuffer, 0, length);
+                    feed(copyBuffer, 0, length);
+                    count -= length;
+                }
+                return src.position() - position;
+            }
+        }
+        return count;
+    }
+
+    public boolean isOpen()
+    {
+        return channel.isOpen();
+    }
+
+    /** Closes the underlying channel and completes the identification. */
+    public void close() throws IOException
+    {
+        try
+        {
+            if (identified == false)
+                finish();
+        } finally
+        {
+            channel.close();
+        }
+    }
+
+    private void feed(byte[] b, int off, int len)
+    {
+        try
+        {
+            if (identifier.feed(b, off, len) == IncrementalIdentifier.STATUS_FINAL)
+                identified = true;
+        } catch (IOException e)
+        {
+            identificationException = e;
+            identified = true;
+        } catch (RuntimeException e)
+        {
+            identificationException = new IOException("Error: "+e.toString());
+            identified = true;
+        }
+    }
+
+    private void finish()
+    {
+        try
+        {
+            identifier.finish();
+        } catch (IOException e)
+        {
+            identificationException = e;
+        } catch (RuntimeException e)
+        {
+            identificationException = new IOException("Error: "+e.toString());
+        }
+        identified = true;
+    }
+
+    /** Returns the status of the identification, one of the
+     *  IncrementalIdentifier.STATUS_XXX constants.
+     */
+    public int getStatus()
+    {
+        return identifier.getStatus();
+    }
+
+    /** Returns the error that stopped the identification, or null. A
+     *  runtime exception is returned wrapped in an IOException.
+     */
+    public IOException getIdentificationException()
+    {
+        return identificationException;
+    }
+
+    /** Fills the property table with the result of the identification.
+     *  The result is final once the channel has been closed.
+     *
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     */
+    public boolean loadMetadata(Properties metadata)
+    {
+        if (identificationException != null)
+            return false;
+        return identifier.loadMetadata(metadata);
+    }
+}
+
+/*
+
+  $Log$
+
+*/
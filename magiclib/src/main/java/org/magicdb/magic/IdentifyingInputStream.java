@@ -0,0 +1,196 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/** Input stream that identifies the data that is read through it.
+ *  All the data is passed unchanged to the reader, while the bytes
+ *  that are read are given to an {@link IncrementalIdentifier}, so that
+ *  a resource can be identified while it is copied, without reading
+ *  it a second time.
+ *
+ *  <p>Once the result is final, the data is no longer examined. The
+ *  end of the stream must be reached for entries relative to the end
+ *  of the resource to be evaluated.</p>
+ *
+ *  <p>An error during the identification does not stop the data from
+ *  being read, it only means that the resource is not identified.</p>
+ */
+public class IdentifyingInputStream extends FilterInputStream
+{
+    private IncrementalIdentifier identifier;
+    /** Indicates that no more data needs to be given to the identifier */
+    private boolean identified;
+    private IOException identificationException;
+    private byte[] singleByte;
+
+    /** Creates an identifying input stream.
+     *
+     * @param in The input stream to read the data from.
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public IdentifyingInputStream(InputStream in, IdentifierMagicDB identifier)
+    {
+        super(in);
+        this.identifier = new IncrementalIdentifier(identifier);
+        singleByte = new byte[1];
+    }
+
+    public int read() throws IOException
+    {
+        int c = in.read();
+        if (identified == false)
+        {
+            if (c == -1)
+                finish();
+            else
+            {
+                singleByte[0] = (byte)c;
+                feed(singleByte, 0, 1);
+            }
+        }
+        return c;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int count = in.read(b, off, len);
+        if (identified == false)
+        {
+            if (count == -1)
+                finish();
+            else
+                feed(b, off, count);
+        }
+        return count;
+    }
+
+    /** Skips over data. Until the result is final, the skipped data
+     *  is read so that it can be examined.
+     */
+    public long skip(long n) throws IOException
+    {
+        byte[] b;
+        long skipped;
+        int count;
+
+        if (identified)
+            return in.skip(n);
+        b = new byte[(int)Math.min(n, 4096)];
+        skipped = 0;
+        while ((skipped < n) && (identified == false))
+        {
+            count = read(b, 0, (int)Math.min(n - skipped, b.length));
+            if (count == -1)
+                return skipped;
+            skipped += count;
+        }
+        if (skipped < n)
+            skipped += in.skip(n - skipped);
+        return skipped;
+    }
+
+    /** Mark and reset are not supported, since the data would be examined
+     *  twice.
+     */
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    public void mark(int readlimit)
+    {
+    }
+
+    public void reset() throws IOException
+    {
+        throw new IOException("Error: mark/reset not supported");
+    }
+
+    private void feed(byte[] b, int off, int len)
+    {
+        try
+        {
+            if (identifier.feed(b, off, len) == IncrementalIdentifier.STATUS_FINAL)
+                identified = true;
+        } catch (IOException e)
+        {
+            identificationException = e;
+            identified = true;
+        } catch (RuntimeException e)
+        {
+            identificationException = new IOException("Error: "+e.toString());
+            identified = true;
+        }
+    }
+
+    private void finish()
+    {
+        try
+        {
+            identifier.finish();
+        } catch (IOException e)
+        {
+            identificationException = e;
+        } catch (RuntimeException e)
+        {
+            identificationException = new IOException("Error: "+e.toString());
+        }
+        identified = true;
+    }
+
+    /** Returns the status of the identification, one of the
+     *  IncrementalIdentifier.STATUS_XXX constants.
+     */
+    public int getStatus()
+    {
+        return identifier.getStatus();
+    }
+
+    /** Returns the error that stopped the identification, or null. A
+     *  runtime exception is returned wrapped in an IOException.
+     */
+    public IOException getIdentificationException()
+    {
+        return identificationException;
+    }
+
+    /** Fills the property table with the result of the identification.
+     *  The result is final once {@link #getStatus()} returns
+     *  {@link IncrementalIdentifier#STATUS_FINAL}, which is the case once
+     *  the end of the stream has been reached without error.
+     *
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     */
+    public boolean loadMetadata(Properties metadata)
+    {
+        if (identificationException != null)
+            return false;
+        return identifier.loadMetadata(metadata);
+    }
+}
+
+/*
+
+  $Log$
+
+*/
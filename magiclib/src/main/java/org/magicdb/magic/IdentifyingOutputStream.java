@@ -0,0 +1,153 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/** Output stream that identifies the data that is written through it.
+ *  All the data is passed unchanged to the underlying stream, while the
+ *  bytes that are written are given to an {@link IncrementalIdentifier},
+ *  so that a produced resource can be identified without being read
+ *  again once written.
+ *
+ *  <p>The result is final once the stream is closed. Once the result
+ *  is final, the data is no longer examined.</p>
+ *
+ *  <p>An error during the identification does not stop the data from
+ *  being written, it only means that the resource is not identified.</p>
+ */
+public class IdentifyingOutputStream extends FilterOutputStream
+{
+    private IncrementalIdentifier identifier;
+    /** Indicates that no more data needs to be given to the identifier */
+    private boolean identified;
+    private IOException identificationException;
+    private byte[] singleByte;
+
+    /** Creates an identifying output stream.
+     *
+     * @param out The output stream to write the data to.
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public IdentifyingOutputStream(OutputStream out, IdentifierMagicDB identifier)
+    {
+        super(out);
+        this.identifier = new IncrementalIdentifier(identifier);
+        singleByte = new byte[1];
+    }
+
+    public void write(int b) throws IOException
+    {
+        out.write(b);
+        if (identified == false)
+        {
+            singleByte[0] = (byte)b;
+            feed(singleByte, 0, 1);
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        out.write(b, off, len);
+        if (identified == false)
+            feed(b, off, len);
+    }
+
+    /** Closes the underlying stream and completes the identification. */
+    public void close() throws IOException
+    {
+        try
+        {
+            if (identified == false)
+                finish();
+        } finally
+        {
+            super.close();
+        }
+    }
+
+    private void feed(byte[] b, int off, int len)
+    {
+        try
+        {
+            if (identifier.feed(b, off, len) == IncrementalIdentifier.STATUS_FINAL)
+                identified = true;
+        } catch (IOException e)
+        {
+            identificationException = e;
+            identified = true;
+        } catch (RuntimeException e)
+        {
+            identificationException = new IOException("Error: "+e.toString());
+            identified = true;
+        }
+    }
+
+    private void finish()
+    {
+        try
+        {
+            identifier.finish();
+        } catch (IOException e)
+        {
+            identificationException = e;
+        } catch (RuntimeException e)
+        {
+            identificationException = new IOException("Error: "+e.toString());
+        }
+        identified = true;
+    }
+
+    /** Returns the status of the identification, one of the
+     *  IncrementalIdentifier.STATUS_XXX constants.
+     */
+    public int getStatus()
+    {
+        return identifier.getStatus();
+    }
+
+    /** Returns the error that stopped the identification, or null. A
+     *  runtime exception is returned wrapped in an IOException.
+     */
+    public IOException getIdentificationException()
+    {
+        return identificationException;
+    }
+
+    /** Fills the property table with the result of the identification.
+     *  The result is final once the stream has been closed.
+     *
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     */
+    public boolean loadMetadata(Properties metadata)
+    {
+        if (identificationException != null)
+            return false;
+        return identifier.loadMetadata(metadata);
+    }
+}
+
+/*
+
+  $Log$
+
+*/
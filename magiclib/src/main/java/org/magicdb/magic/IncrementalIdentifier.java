@@ -0,0 +1,382 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Identifies a resource whose data is received in chunks, such as
+ *  data coming from the network, without having to buffer the whole
+ *  resource first.
+ *
+ *  <p>The chunks are passed in order to {@link #feed(byte[], int, int)}.
+ *  Each entry of the magic database is evaluated as soon as the data at
+ *  its offsets has been received, and the returned status indicates
+ *  if the resource type is known:</p>
+ *   <ul>
+ *    <li>{@link #STATUS_NEED_MORE_DATA}: No result can be given yet,
+ *      {@link #getBytesNeeded()} returns the number of bytes needed
+ *      before the next evaluation.</li>
+ *    <li>{@link #STATUS_DECIDED}: The resource type is known from the
+ *      data received. Only entries relative to the end of the
+ *      resource, which are evaluated when {@link #finish()} is
+ *      called, could still give another result, and some additional
+ *      information might still be missing.</li>
+ *    <li>{@link #STATUS_FINAL}: The result is complete, and is the same
+ *      as calling {@link IdentifierMagicDB#loadMetadata(java.io.DataInput, Properties)}
+ *      on the complete resource. Further data is ignored.</li>
+ *   </ul>
+ *
+ *  <p>{@link #finish()} must be called once the end of the data is
+ *  reached, so that the entries relative to the end of the resource
+ *  are evaluated. The data is only kept in memory until the result is
+ *  final, and once only entries relative to the end of the resource
+ *  are pending, only the last bytes of the data are kept.</p>
+ *
+ *  <p>An instance of this class must not be used by several threads
+ *  at the same time, and the identifier must not be used at the same
+ *  time by another thread.</p>
+ */
+public class IncrementalIdentifier
+{
+    /** More data is needed before the resource can be identified. */
+    public static final int STATUS_NEED_MORE_DATA = 0;
+    /** The resource type is known, but the result is not final yet. */
+    public static final int STATUS_DECIDED = 1;
+    /** The result is final. */
+    public static final int STATUS_FINAL = 2;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private IdentifierMagicDB identifier;
+    private PartialEvaluation evaluation;
+    private RangeDataInput input;
+
+    /** This is the start of the data, which is kept until the head
+     *  is frozen.
+     */
+    private byte[] head;
+    private int headLength;
+    /** Indicates that only entries relative to the end of the
+     *  data are pending, so only the tail of the data is kept.
+     */
+    private boolean headFrozen;
+    /** Circular buffer containing the last bytes of the data,
+     *  once the head is frozen.
+     */
+    private byte[] tail;
+    private int tailLength;
+    private int tailPosition;
+
+    /** The total number of bytes received */
+    private long dataLength;
+    private boolean complete;
+    private int status;
+    /** The data length needed before the next evaluation, or -1 if
+     *  only the end of the data can change the status.
+     */
+    private long requiredLength;
+    private Properties result;
+
+    /** Creates an incremental identifier for one resource.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public IncrementalIdentifier(IdentifierMagicDB identifier)
+    {
+        super();
+        this.identifier = identifier;
+        this.input = new RangeDataInput();
+        this.evaluation = new PartialEvaluation(identifier);
+        reset();
+    }
+
+    /** Resets this instance so that another resource can be identified. */
+    public void reset()
+    {
+        evaluation.reset();
+        if (head == null)
+            head = new byte[INITIAL_BUFFER_SIZE];
+        headLength = 0;
+        headFrozen = false;
+        tail = null;
+        tailLength = 0;
+        tailPosition = 0;
+        dataLength = 0;
+        complete = false;
+        status = STATUS_NEED_MORE_DATA;
+        requiredLength = 0;
+        result = null;
+        input.clear();
+    }
+
+    /** Passes the next chunk of data of the resource.
+     *
+     * @param b The buffer containing the data.
+     * @param off The offset of the data in the buffer.
+     * @param len The number of bytes of data.
+     * @return The new status, one of the STATUS_XXX constants.
+     * @throws IOException In case of error evaluating the entries.
+     */
+    public int feed(byte[] b, int off, int len) throws IOException
+    {
+        if (complete)
+            throw new IllegalStateException("Error: Data is already complete");
+        dataLength += len;
+        if (status == STATUS_FINAL)
+            return status;
+        if (headFrozen)
+        {
+            appendTail(b, off, len);
+            return status;
+        }
+        if (headLength + len > head.length)
+        {
+            byte[] newHead = new byte[Math.max(head.length * 2, headLength + len)];
+            System.arraycopy(head, 0, newHead, 0, headLength);
+            head = newHead;
+        }
+        System.arraycopy(b, off, head, headLength, len);
+        headLength += len;
+        // Nothing can change until enough data has been received
+        if ((requiredLength == -1) || (headLength < requiredLength))
+            return status;
+        evaluate();
+        return status;
+    }
+
+    /** Indicates that all the data of the resource has been passed.
+     *
+     * @return The final status, which is always {@link #STATUS_FINAL}.
+     * @throws IOException In case of error evaluating the entries, or
+     *   if the data is too short for some additional information.
+     */
+    public int finish() throws IOException
+    {
+        if (complete)
+            return status;
+        complete = true;
+        if (status != STATUS_FINAL)
+            evaluate();
+        return status;
+    }
+
+    /** Returns the current status, one of the STATUS_XXX constants. */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /** Returns the number of additional bytes that are needed before
+     *  the status can change, or -1 if the status can only change once
+     *  {@link #finish()} is called. Returns 0 if the status is
+     *  {@link #STATUS_FINAL}.
+     */
+    public long getBytesNeeded()
+    {
+        if (status == STATUS_FINAL)
+            return 0;
+        if (requiredLength == -1)
+            return -1;
+        if (requiredLength <= dataLength)
+            return 0;
+        return requiredLength - dataLength;
+    }
+
+    /** Returns the total number of bytes passed to this identifier. */
+    public long getDataLength()
+    {
+        return dataLength;
+    }
+
+    /** Returns true if the resource has been identified, which is
+     *  the case when the status is not {@link #STATUS_NEED_MORE_DATA}
+     *  and an entry has matched.
+     */
+    public boolean isIdentified()
+    {
+        return result != null;
+    }
+
+    /** Fills the property table with the result of the identification.
+     *  If the status is {@link #STATUS_DECIDED}, some additional information
+     *  might still be missing.
+     *
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     */
+    public boolean loadMetadata(Properties metadata)
+    {
+        if (result == null)
+            return false;
+        IdentifierMagicDB.copyProperties(result, metadata);
+        return true;
+    }
+
+    private void appendTail(byte[] b, int off, int len)
+    {
+        int count;
+        if (tail.length == 0)
+            return;
+        // Only the last bytes are of interest
+        if (len > tail.length)
+        {
+            off += len - tail.length;
+            len = tail.length;
+        }
+        while (len > 0)
+        {
+            count = Math.min(len, tail.length - tailPosition);
+            System.arraycopy(b, off, tail, tailPosition, count);
+            tailPosition = (tailPosition + count) % tail.length;
+            tailLength = Math.min(tail.length, tailLength + count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /** Sets up the input with the data that is available. */
+    private void prepareInput()
+    {
+        byte[] b;
+        int start;
+
+        input.clear();
+        input.addRange(0, head, 0, headLength);
+        if (tailLength > 0)
+        {
+            // Put the tail back in order, skipping what is in the head
+            b = new byte[tailLength];
+            start = (tailPosition - tailLength + tail.length) % tail.length;
+            System.arraycopy(tail, start, b, 0, Math.min(tailLength, tail.length - start));
+            if (start + tailLength > tail.length)
+                System.arraycopy(tail, 0, b, tail.length - start, tailLength - (tail.length - start));
+            start = (int)Math.max(0, headLength - (dataLength - tailLength));
+            input.addRange(dataLength - tailLength + start, b, start, tailLength - start);
+        }
+        if (complete)
+            input.setLength(dataLength);
+    }
+
+    private void evaluate() throws IOException
+    {
+        long required;
+        int i;
+
+        prepareInput();
+        // Only data that was not kept can be missing once complete
+        status = evaluation.evaluate(input, complete);
+        result = evaluation.getResult();
+
+        required = Long.MAX_VALUE;
+        for (i = 0; i < evaluation.getMissingCount(); i++)
+        {
+            required = Math.min(required, evaluation.getMissingPosition(i) + evaluation.getMissingLength(i));
+        }
+        if (required != Long.MAX_VALUE)
+        {
+            requiredLength = required;
+        } else
+        if (evaluation.isWaitingEnd())
+        {
+            requiredLength = -1;
+            freezeHead((result != null) && !evaluation.isDescribed());
+        }
+        if (status == STATUS_FINAL)
+        {
+            head = null;
+            input.clear();
+        }
+    }
+
+    /** Stops keeping all the data when only the end of the data is
+     *  needed, and all the other data that could still be read is
+     *  already in the head.
+     *
+     * @param describeBest true if the additional information of the best
+     *   match still has to be read.
+     */
+    private void freezeHead(boolean describeBest)
+    {
+        MagicEntry[] entryTable = identifier.getEntryTable();
+        int bestIndex = evaluation.getBestIndex();
+        long tailSize;
+        long extent;
+        int i;
+
+        if (headFrozen)
+            return;
+        tailSize = 0;
+        for (i = 0; i < entryTable.length; i++)
+        {
+            if (i == bestIndex)
+            {
+                if (!describeBest)
+                    continue;
+            } else
+            {
+                if (!evaluation.isPending(i))
+                    continue;
+                extent = getExtent(entryTable[i], entryTable[i].matchEntries);
+                if (extent == Long.MAX_VALUE)
+                    return;
+                tailSize = Math.max(tailSize, extent);
+            }
+            extent = getExtent(entryTable[i], entryTable[i].extraMatchEntries);
+            if (extent == Long.MAX_VALUE)
+                return;
+            tailSize = Math.max(tailSize, extent);
+        }
+        if (tailSize > Integer.MAX_VALUE)
+            return;
+        headFrozen = true;
+        tail = new byte[(int)tailSize];
+    }
+
+    /** Returns the size of the tail needed by the entry and the
+     *  specified continuation entries, or Long.MAX_VALUE if they can read
+     *  data after the head.
+     */
+    private long getExtent(MagicEntry entry, LinkedList list)
+    {
+        long tailSize;
+        long extent;
+        int i;
+
+        tailSize = 0;
+        for (i = -1; i < list.size(); i++)
+        {
+            if (i == -1)
+                extent = identifier.getEntryExtent(entry);
+            else
+                extent = identifier.getEntryExtent((MagicEntry)list.get(i));
+            if (extent < 0)
+                tailSize = Math.max(tailSize, -extent);
+            else
+            if (extent > headLength)
+                return Long.MAX_VALUE;
+        }
+        return tailSize;
+    }
+}
+
+/*
+
+  $Log$
+
+*/
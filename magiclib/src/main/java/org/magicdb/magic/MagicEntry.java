@@ -83,7 +83,55 @@ class MagicEntry
    *  entry.
    */
   int signatureLength;
-  
+
+  /** This is the compiled description, used to format the extra
+   *  information of a match.
+   */
+  DescriptionFormat format;
+
+  /** This is the compiled properties of the description for each
+   *  combination of matching additional information entries, where
+   *  bit i of the index is set if entry i matches. An element is null
+   *  if the properties must be parsed, and the table is null if they
+   *  must always be parsed.
+   */
+  PropertyTemplate[] templates;
+  /** The properties that each additional information entry can change,
+   *  as a combination of the IdentificationResult.PROPERTY_XXX constants,
+   *  or null if the templates are null.
+   */
+  int[] extraProperties;
+  /** The value of a string entry compared for equality, packed 8 bytes
+   *  per long in big endian order, the last long being completed with
+   *  zeros, or null if the value is compared as a ByteBuffer.
+   */
+  long[] packedValue;
+  /** The number of offsets, from the offset of a search entry, at which
+   *  its value is looked for.
+   */
+  int searchRange;
+  /** The values looked for in the same range as a search entry */
+  SearchPatterns searchPatterns;
+  /** The index of the value of a search entry in its search patterns */
+  int searchIndex;
+  /** The level of a continuation entry, which is the number of & or >
+   *  characters before its offset.
+   */
+  int level;
+  /** The index, in the same list, of the continuation entry that this
+   *  continuation entry continues, or -1 if it continues the main entry.
+   */
+  int parentIndex;
+  /** Indicates that the offset is relative to the end of the data
+   *  matched by the parent entry.
+   */
+  boolean relativeOffset;
+  /** Indicates that some continuation entries of this entry are nested
+   *  or have a relative offset, so that they must be evaluated in order
+   *  after their parent entry.
+   */
+  boolean nestedEntries;
+
   /** Default and value when there is no AND operator */
   public static final long DEFAULT_AND_VALUE = (long)0x00000000FFFFFFFFL;
 
@@ -103,6 +151,8 @@ class MagicEntry
   public static final byte TYPE_BELONG = 6;
   /** The field to read is a case insensitive array of bytes */
   public static final byte TYPE_ISTRING = 7;
+  /** The field to read is an array of bytes looked for in a range of offsets */
+  public static final byte TYPE_SEARCH = 8;
 
   /** Size determination in bits */
   public static final int SHORT_SIZE = 16;
@@ -122,6 +172,7 @@ class MagicEntry
       "beshort",
       "belong",
       "string/c",
+      "search",
   };
           
   private static final int[] TYPE_SIZE_VALUES = 
@@ -134,6 +185,7 @@ class MagicEntry
       SHORT_SIZE / 8,
       LONG_SIZE / 8,
       0,
+      0,
   };
   
   private static final int[] TYPE_VALUES = 
@@ -145,6 +197,7 @@ class MagicEntry
       TYPE_BESHORT,
       TYPE_BELONG,
       TYPE_ISTRING,
+      TYPE_SEARCH,
   };
   
   public MagicEntry()
@@ -153,7 +206,8 @@ class MagicEntry
       matchEntries = new LinkedList();
       extraMatchEntries = new LinkedList();
       extraOffset = -1;
-      
+      parentIndex = -1;
+
   }
 
   /** Convert a string in the magic file format to the
@@ -182,7 +236,7 @@ class MagicEntry
    */
   public boolean isNumeric()
   {
-      if ((type == TYPE_STRING) || (type == TYPE_ISTRING))
+      if ((type == TYPE_STRING) || (type == TYPE_ISTRING) || (type == TYPE_SEARCH))
           return false;
       return true;
   }
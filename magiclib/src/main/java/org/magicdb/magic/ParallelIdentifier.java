@@ -0,0 +1,387 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Identifies a resource by evaluating parts of the entry table in
+ *  parallel, to reduce the time needed for one identification with
+ *  very large magic databases.
+ *
+ *  <p>The data at the start and at the end of the resource read by the
+ *  direct offset entries is read once in memory. The evaluation order of
+ *  the entries is then split in parts that are evaluated by a pool of
+ *  threads, the calling thread evaluating one of the parts. The best
+ *  match of each part is merged using the same ranking as
+ *  {@link IdentifierMagicDB#loadMetadata(java.io.DataInput, Properties)},
+ *  so the result is the same. The entries which need other data, such
+ *  as entries with indirect offsets, are evaluated afterwards on the
+ *  resource itself.</p>
+ *
+ *  <p>Parallel evaluation is only used if the database contains at least
+ *  a minimum number of entries, since otherwise the cost of dispatching
+ *  the work is larger than the evaluation itself.</p>
+ */
+public class ParallelIdentifier
+{
+    /** Default minimum number of entries for the evaluation to be parallel */
+    public static final int DEFAULT_MINIMUM_ENTRY_COUNT = 4096;
+    /** Number of parts for each thread, so that threads which finish early
+     *  can take the parts of other threads.
+     */
+    private static final int PARTS_PER_THREAD = 4;
+
+    private IdentifierMagicDB identifier;
+    private int threadCount;
+    private int minimumEntryCount;
+    private Thread[] threads;
+    /** Queue of the parts waiting to be evaluated */
+    private LinkedList queue;
+    private boolean shutdown;
+
+    /** Creates a parallel identifier with one thread per processor and
+     *  the default minimum number of entries.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public ParallelIdentifier(IdentifierMagicDB identifier)
+    {
+        this(identifier, Runtime.getRuntime().availableProcessors(), DEFAULT_MINIMUM_ENTRY_COUNT);
+    }
+
+    /** Creates a parallel identifier.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param threadCount The number of threads evaluating each resource,
+     *   including the calling thread.
+     * @param minimumEntryCount The minimum number of entries in the
+     *   database for the evaluation to be parallel.
+     */
+    public ParallelIdentifier(IdentifierMagicDB identifier, int threadCount, int minimumEntryCount)
+    {
+        super();
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Error: Thread count must be at least 1");
+        this.identifier = identifier;
+        this.threadCount = threadCount;
+        this.minimumEntryCount = minimumEntryCount;
+        queue = new LinkedList();
+    }
+
+    /** Returns true if the evaluation is done in parallel with this
+     *  database.
+     */
+    public boolean isParallel()
+    {
+        return (threadCount > 1) && (identifier.getEntryTable().length >= minimumEntryCount);
+    }
+
+    /** From the specified file, try to identify the resource and return
+     *  the filled property table.
+     *
+     * @param file The file to identify. Its file pointer is changed by
+     *   this method.
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(RandomAccessFile file, Properties metadata) throws IOException
+    {
+        RangeDataInput input;
+        long length;
+        long start;
+        long end;
+
+        if (!isParallel())
+            return identifier.loadMetadata(file, metadata);
+        length = file.length();
+        input = new RangeDataInput();
+        input.setLength(length);
+        end = Math.min(length, identifier.getHeadLength());
+        read(file, input, 0, end);
+        start = Math.max(end, length - identifier.getTailLength());
+        read(file, input, start, length);
+        return loadMetadata(input, file, metadata);
+    }
+
+    /** From the specified buffer, try to identify the resource and return
+     *  the filled property table.
+     *
+     * @param b The buffer containing the resource.
+     * @param off The offset of the resource in the buffer.
+     * @param len The length of the resource.
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(byte[] b, int off, int len, Properties metadata) throws IOException
+    {
+        RangeDataInput input;
+
+        if (!isParallel())
+            return identifier.loadMetadata(b, off, len, metadata);
+        input = new RangeDataInput(b, off, len);
+        return loadMetadata(input, input, metadata);
+    }
+
+    /** Stops the threads. */
+    public void shutdown()
+    {
+        synchronized (queue)
+        {
+            shutdown = true;
+            queue.notifyAll();
+        }
+    }
+
+    private static void read(RandomAccessFile file, RangeDataInput input, long start, long end) throws IOException
+    {
+        byte[] b;
+        if (start >= end)
+            return;
+        b = new byte[(int)(end - start)];
+        file.seek(start);
+        file.readFully(b);
+        input.addRange(start, b, 0, b.length);
+    }
+
+    /** Evaluates the entries in parallel on the data in memory.
+     *
+     * @param data The data in memory.
+     * @param resource The complete resource, used for the entries needing
+     *   data that is not in memory, and to read the additional information.
+     */
+    private boolean loadMetadata(RangeDataInput data, DataInput resource, Properties metadata) throws IOException
+    {
+        int count = identifier.getEntryTable().length;
+        byte[] states = new byte[count];
+        long[] missingPositions = new long[count];
+        int[] missingLengths = new int[count];
+        int partCount = threadCount * PARTS_PER_THREAD;
+        Part[] parts = new Part[partCount];
+        Countdown countdown = new Countdown(partCount);
+        int[] order = identifier.getEvaluationOrder();
+        Part part;
+        int entry;
+        int best;
+        int i;
+
+        for (i = 0; i < partCount; i++)
+        {
+            parts[i] = new Part(data, (int)((long)count * i / partCount), (int)((long)count * (i + 1) / partCount),
+                states, missingPositions, missingLengths, countdown);
+        }
+        startThreads();
+        synchronized (queue)
+        {
+            for (i = 1; i < partCount; i++)
+            {
+                queue.addLast(parts[i]);
+            }
+            queue.notifyAll();
+        }
+        // The calling thread evaluates parts too, until all are taken
+        parts[0].run();
+        while ((part = pollPart()) != null)
+        {
+            part.run();
+        }
+        countdown.await();
+        for (i = 0; i < partCount; i++)
+        {
+            if (parts[i].error != null)
+                throw parts[i].error;
+            if (parts[i].runtimeException != null)
+                throw parts[i].runtimeException;
+            if (parts[i].exception != null)
+                throw parts[i].exception;
+        }
+
+        // The first match in the evaluation order is the best one. The
+        // entries which need data that is not in memory are evaluated on
+        // the resource when they are reached.
+        best = -1;
+        for (i = 0; i < count; i++)
+        {
+            entry = order[i];
+            if ((states[entry] == IdentifierMagicDB.ENTRY_MATCH) ||
+               ((states[entry] == IdentifierMagicDB.ENTRY_UNKNOWN) && identifier.matchEntry(resource, entry)))
+            {
+                best = entry;
+                break;
+            }
+        }
+        if (best == -1)
+            return false;
+        identifier.describeEntry(resource, best, metadata);
+        return true;
+    }
+
+    private void startThreads()
+    {
+        int i;
+        synchronized (queue)
+        {
+            if (shutdown)
+                throw new IllegalStateException("Error: Identifier is shut down");
+            if (threads != null)
+                return;
+            threads = new Thread[threadCount - 1];
+            for (i = 0; i < threads.length; i++)
+            {
+                threads[i] = new Thread(new Worker(), "MagicDB evaluator "+Integer.toString(i));
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+    }
+
+    /** Returns the next part waiting to be evaluated, or null. */
+    private Part pollPart()
+    {
+        synchronized (queue)
+        {
+            if (queue.isEmpty())
+                return null;
+            return (Part)queue.removeFirst();
+        }
+    }
+
+    /** Part of the entry table evaluated by one thread. */
+    private class Part implements Runnable
+    {
+        private RangeDataInput input;
+        private int from;
+        private int to;
+        private byte[] states;
+        private long[] missingPositions;
+        private int[] missingLengths;
+        private Countdown countdown;
+        IOException exception;
+        RuntimeException runtimeException;
+        Error error;
+
+        Part(RangeDataInput data, int from, int to, byte[] states, long[] missingPositions,
+            int[] missingLengths, Countdown countdown)
+        {
+            // Each thread needs its own position in the data
+            input = data.duplicate();
+            this.from = from;
+            this.to = to;
+            this.states = states;
+            this.missingPositions = missingPositions;
+            this.missingLengths = missingLengths;
+            this.countdown = countdown;
+        }
+
+        public void run()
+        {
+            try
+            {
+                identifier.evaluateEntries(input, from, to, states, missingPositions, missingLengths);
+            } catch (IOException e)
+            {
+                exception = e;
+            } catch (RuntimeException e)
+            {
+                runtimeException = e;
+            } catch (Error e)
+            {
+                // Thrown by the calling thread, so that the worker
+                // threads go on with the other parts
+                error = e;
+            } finally
+            {
+                countdown.countDown();
+            }
+        }
+    }
+
+    /** Waits until all the parts of an identification are evaluated. */
+    private static class Countdown
+    {
+        private int count;
+
+        Countdown(int count)
+        {
+            this.count = count;
+        }
+
+        synchronized void countDown()
+        {
+            count--;
+            if (count == 0)
+                notifyAll();
+        }
+
+        synchronized void await() throws IOException
+        {
+            while (count > 0)
+            {
+                try
+                {
+                    wait();
+                } catch (InterruptedException e)
+                {
+                    throw new InterruptedIOException("Error: Interrupted while waiting");
+                }
+            }
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            Part part;
+            while (true)
+            {
+                synchronized (queue)
+                {
+                    while (queue.isEmpty())
+                    {
+                        if (shutdown)
+                            return;
+                        try
+                        {
+                            queue.wait();
+                        } catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                    }
+                    part = (Part)queue.removeFirst();
+                }
+                part.run();
+            }
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,245 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+
+/** Keeps track of the evaluation of the entries of the magic database
+ *  for a resource whose data is only partly available in a
+ *  {@link RangeDataInput}. Each call to {@link #evaluate(RangeDataInput, boolean)}
+ *  evaluates the entries that could not be evaluated before, and
+ *  determines the data that is still missing to get the result.
+ *
+ *  <p>Only the entries which could still give a better match than
+ *  the best match found are considered as missing data.</p>
+ */
+class PartialEvaluation
+{
+    private IdentifierMagicDB identifier;
+    private byte[] states;
+    private long[] missingPositions;
+    private int[] missingLengths;
+
+    private int status;
+    /** Index in the entry table of the best match, or -1 */
+    private int bestIndex;
+    private Properties result;
+    /** Indicates that the additional information of the best match is complete */
+    private boolean described;
+
+    /** The data ranges missing after the last evaluation */
+    private long[] rangePositions;
+    private int[] rangeLengths;
+    private int rangeCount;
+    /** Indicates that the end of the data is needed after the last evaluation */
+    private boolean waitingEnd;
+
+    public PartialEvaluation(IdentifierMagicDB identifier)
+    {
+        int count = identifier.getEntryTable().length;
+        this.identifier = identifier;
+        states = new byte[count];
+        missingPositions = new long[count];
+        missingLengths = new int[count];
+        rangePositions = new long[16];
+        rangeLengths = new int[16];
+        reset();
+    }
+
+    /** Resets the evaluation so that another resource can be identified. */
+    public void reset()
+    {
+        Arrays.fill(states, IdentifierMagicDB.ENTRY_UNKNOWN);
+        status = IncrementalIdentifier.STATUS_NEED_MORE_DATA;
+        bestIndex = -1;
+        result = null;
+        described = false;
+        rangeCount = 0;
+        waitingEnd = false;
+    }
+
+    /** Evaluates the entries with the data available and updates the
+     *  status and the missing data information.
+     *
+     * @param input The input containing the data available.
+     * @param noMoreData true if no more data will be available, in
+     *   which case the entries which still miss data do not match.
+     * @return The new status, one of the IncrementalIdentifier.STATUS_XXX
+     *   constants.
+     * @throws IOException In case of error evaluating the entries.
+     */
+    public int evaluate(RangeDataInput input, boolean noMoreData) throws IOException
+    {
+        MagicEntry[] entryTable = identifier.getEntryTable();
+        int i;
+
+        identifier.evaluateEntries(input, states, missingPositions, missingLengths);
+
+        bestIndex = -1;
+        for (i = 0; i < entryTable.length; i++)
+        {
+            if ((states[i] == IdentifierMagicDB.ENTRY_MATCH) &&
+               ((bestIndex == -1) || identifier.isRankedBefore(i, bestIndex)))
+                bestIndex = i;
+        }
+
+        // Check the pending entries which could still give a better match.
+        rangeCount = 0;
+        waitingEnd = false;
+        for (i = 0; i < entryTable.length; i++)
+        {
+            if (states[i] != IdentifierMagicDB.ENTRY_UNKNOWN)
+                continue;
+            if (noMoreData)
+            {
+                states[i] = IdentifierMagicDB.ENTRY_NO_MATCH;
+                continue;
+            }
+            if ((bestIndex != -1) && !identifier.isRankedBefore(i, bestIndex))
+                continue;
+            if (missingPositions[i] < 0)
+                waitingEnd = true;
+            else
+                addMissingRange(missingPositions[i], missingLengths[i]);
+        }
+
+        result = null;
+        described = false;
+        if (rangeCount > 0)
+        {
+            status = IncrementalIdentifier.STATUS_NEED_MORE_DATA;
+            return status;
+        }
+        if (bestIndex == -1)
+        {
+            if (waitingEnd)
+                status = IncrementalIdentifier.STATUS_NEED_MORE_DATA;
+            else
+                status = IncrementalIdentifier.STATUS_FINAL;
+            return status;
+        }
+
+        result = new Properties();
+        try
+        {
+            identifier.describeEntry(input, bestIndex, result);
+            described = true;
+            if (waitingEnd)
+                status = IncrementalIdentifier.STATUS_DECIDED;
+            else
+                status = IncrementalIdentifier.STATUS_FINAL;
+        } catch (DataUnavailableException e)
+        {
+            if (noMoreData)
+                throw e;
+            // The additional information is not available yet
+            result = new Properties();
+            identifier.describeEntry(bestIndex, result);
+            status = IncrementalIdentifier.STATUS_DECIDED;
+            if (e.fromEnd)
+                waitingEnd = true;
+            else
+                addMissingRange(e.position, e.length);
+        }
+        return status;
+    }
+
+    private void addMissingRange(long position, int length)
+    {
+        if (rangeCount == rangePositions.length)
+        {
+            long[] positions = new long[rangeCount * 2];
+            int[] lengths = new int[rangeCount * 2];
+            System.arraycopy(rangePositions, 0, positions, 0, rangeCount);
+            System.arraycopy(rangeLengths, 0, lengths, 0, rangeCount);
+            rangePositions = positions;
+            rangeLengths = lengths;
+        }
+        rangePositions[rangeCount] = position;
+        rangeLengths[rangeCount] = length;
+        rangeCount++;
+    }
+
+    /** Returns the status of the last evaluation. */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /** Returns the index in the entry table of the best match, or -1. */
+    public int getBestIndex()
+    {
+        return bestIndex;
+    }
+
+    /** Returns the result of the last evaluation, or null if there is
+     *  no match yet.
+     */
+    public Properties getResult()
+    {
+        return result;
+    }
+
+    /** Returns true if the result contains the additional information
+     *  of the best match.
+     */
+    public boolean isDescribed()
+    {
+        return described;
+    }
+
+    /** Returns the number of missing data ranges. */
+    public int getMissingCount()
+    {
+        return rangeCount;
+    }
+
+    public long getMissingPosition(int index)
+    {
+        return rangePositions[index];
+    }
+
+    public int getMissingLength(int index)
+    {
+        return rangeLengths[index];
+    }
+
+    /** Returns true if the end of the data, whose length is not known,
+     *  is needed.
+     */
+    public boolean isWaitingEnd()
+    {
+        return waitingEnd;
+    }
+
+    /** Returns true if the entry at the specified index is not evaluated
+     *  yet and could still give a better match.
+     */
+    public boolean isPending(int index)
+    {
+        if (states[index] != IdentifierMagicDB.ENTRY_UNKNOWN)
+            return false;
+        return (bestIndex == -1) || identifier.isRankedBefore(index, bestIndex);
+    }
+}
+
+/*
+
+  $Log$
+
+*/
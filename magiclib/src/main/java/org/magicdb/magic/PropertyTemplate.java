@@ -0,0 +1,527 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.util.LinkedList;
+
+/** Properties of a description compiled once into the keys and values
+ *  that are constant and the ones that contain formatted values, so that
+ *  the properties of a match are set without parsing the description
+ *  again.
+ *
+ *  <p>The description is given as a sequence of pieces which are either
+ *  constant text, or slots which are replaced by the values formatted
+ *  by the additional information entries. The template gives the same
+ *  properties as {@link IdentifierMagicDB} parsing the complete
+ *  description, as long as the values do not contain any of the
+ *  characters that delimit the properties.</p>
+ *
+ *  <p>An instance can be used by several threads at the same time.</p>
+ */
+class PropertyTemplate
+{
+    /** Item of the description which is the ; added at the end of a property */
+    private static final int ITEM_SEPARATOR = -1;
+
+    private IdentifierMagicDB identifier;
+    private int slotCount;
+    private Text[] keys;
+    private Text[] values;
+    /** The index of each key in the property tables, -1 if the key is not
+     *  a known property, or -2 if it must be looked up from the key value.
+     */
+    private int[] keyIndexes;
+    /** The IdentificationResult.PROPERTY_XXX constant of each key, or
+     *  PROPERTY_ALL if it must be looked up from the key value.
+     */
+    private int[] keyProperties;
+    private Text comment;
+
+    private PropertyTemplate(IdentifierMagicDB identifier, int slotCount)
+    {
+        super();
+        this.identifier = identifier;
+        this.slotCount = slotCount;
+    }
+
+    /** Compiles the properties of a description.
+     *
+     * @param identifier The identifier whose property tables are used.
+     * @param pieces The pieces of the description, either a String
+     *   containing constant text, or an Integer containing the index of
+     *   a slot.
+     * @param slotCount The number of slots.
+     * @return The template, or null if the properties of the description
+     *   cannot be compiled, in which case the description must be parsed.
+     */
+    static PropertyTemplate compile(IdentifierMagicDB identifier, Object[] pieces, int slotCount)
+    {
+        PropertyTemplate template = new PropertyTemplate(identifier, slotCount);
+        if (template.compile(pieces))
+            return template;
+        return null;
+    }
+
+    /** Compiles the description in the same way as it is parsed, where
+     *  a slot can contain any character except [ ] ; and =.
+     */
+    private boolean compile(Object[] pieces)
+    {
+        StringBuffer buffer = new StringBuffer();
+        LinkedList keyList = new LinkedList();
+        LinkedList valueList = new LinkedList();
+        LinkedList indexList = new LinkedList();
+        int[] slots;
+        char[] chars;
+        int[] idinfo;
+        int[] finalString;
+        int idinfoLength;
+        int finalLength;
+        int startPos;
+        int endPos;
+        int indirective;
+        int count;
+        int start;
+        int end;
+        int separator;
+        int i;
+        int j;
+
+        // The description as characters, where the slots are items
+        // without character.
+        for (i = 0; i < pieces.length; i++)
+        {
+            if (pieces[i] instanceof String)
+                buffer.append((String)pieces[i]);
+            else
+                buffer.append('\0');
+        }
+        chars = new char[buffer.length()];
+        slots = new int[buffer.length()];
+        count = 0;
+        for (i = 0; i < pieces.length; i++)
+        {
+            if (pieces[i] instanceof String)
+            {
+                for (j = 0; j < ((String)pieces[i]).length(); j++)
+                {
+                    chars[count] = ((String)pieces[i]).charAt(j);
+                    slots[count++] = -1;
+                }
+            } else
+                slots[count++] = ((Integer)pieces[i]).intValue();
+        }
+
+        startPos = -1;
+        endPos = -1;
+        for (i = count - 1; i >= 0; i--)
+        {
+            if ((slots[i] == -1) && (chars[i] == '['))
+                startPos = i;
+            if ((slots[i] == -1) && (chars[i] == ']'))
+                endPos = i;
+        }
+        idinfo = new int[count * 2];
+        idinfoLength = 0;
+        finalString = new int[count];
+        finalLength = 0;
+        if ((startPos == -1) && (endPos == -1))
+        {
+            for (i = 0; i < count; i++)
+            {
+                finalString[finalLength++] = i;
+            }
+        }
+        if ((startPos >= 0) && (endPos >= 0) && (endPos > startPos))
+        {
+            indirective = 0;
+            for (i = 0; i < count; i++)
+            {
+                if ((slots[i] == -1) && (chars[i] == '['))
+                    indirective++;
+                else
+                if ((slots[i] == -1) && (chars[i] == ']'))
+                {
+                    if (i + 1 >= count)
+                        idinfo[idinfoLength++] = ITEM_SEPARATOR;
+                    else
+                    if (indirective == 1)
+                        idinfo[idinfoLength++] = ITEM_SEPARATOR;
+                    else
+                    if (slots[i + 1] != -1)
+                    {
+                        // Depends on the slot being empty or not
+                        return false;
+                    } else
+                    if (chars[i + 1] == ';')
+                        idinfo[idinfoLength++] = ITEM_SEPARATOR;
+                    indirective--;
+                } else
+                if (indirective > 0)
+                    idinfo[idinfoLength++] = i;
+                else
+                    finalString[finalLength++] = i;
+            }
+        }
+        comment = new Text(chars, slots, finalString, 0, finalLength, false);
+
+        // Now split by ; characters, the empty properties at the end
+        // are ignored.
+        if (idinfoLength == 0)
+            return false;
+        while ((idinfoLength > 0) && isSeparator(chars, idinfo[idinfoLength - 1]))
+        {
+            idinfoLength--;
+        }
+        start = 0;
+        while (start < idinfoLength)
+        {
+            end = start;
+            separator = -1;
+            while ((end < idinfoLength) && !isSeparator(chars, idinfo[end]))
+            {
+                if ((separator == -1) && (slots[idinfo[end]] == -1) && (chars[idinfo[end]] == '='))
+                    separator = end;
+                end++;
+            }
+            if (separator == -1)
+                return false;
+            if (!addProperty(new Text(chars, slots, idinfo, start, separator, true),
+                    new Text(chars, slots, idinfo, separator + 1, end, true), keyList, valueList, indexList))
+                return false;
+            while ((end < idinfoLength) && isSeparator(chars, idinfo[end]))
+            {
+                end++;
+            }
+            start = end;
+        }
+        keys = (Text[])keyList.toArray(new Text[keyList.size()]);
+        values = (Text[])valueList.toArray(new Text[valueList.size()]);
+        keyIndexes = new int[indexList.size()];
+        keyProperties = new int[indexList.size()];
+        for (i = 0; i < keyIndexes.length; i++)
+        {
+            keyIndexes[i] = ((Integer)indexList.get(i)).intValue();
+            if (keyIndexes[i] == -2)
+                keyProperties[i] = IdentificationResult.PROPERTY_ALL;
+            else
+                keyProperties[i] = IdentificationResult.getPropertyFlag(keys[i].value);
+        }
+        return true;
+    }
+
+    private static boolean isSeparator(char[] chars, int item)
+    {
+        return (item == ITEM_SEPARATOR) || (chars[item] == ';');
+    }
+
+    /** Adds a property, resolving what is constant. Returns false if a
+     *  constant value is not valid.
+     */
+    private boolean addProperty(Text key, Text value, LinkedList keyList, LinkedList valueList, LinkedList indexList)
+    {
+        int index;
+
+        if (key.value == null)
+            index = -2;
+        else
+        {
+            index = identifier.getPropertyIndex(key.value);
+            if (index != -1)
+            {
+                key.value = identifier.getPropertyKey(index);
+                if (value.value != null)
+                {
+                    try
+                    {
+                        value.value = identifier.getPropertyValue(index, value.value);
+                    } catch (NumberFormatException e)
+                    {
+                        return false;
+                    }
+                } else
+                if (identifier.isPropertyExpression(index))
+                {
+                    // Otherwise the text of the value is evaluated
+                    try
+                    {
+                        value.expression = Expression.compile(value.getTrimmedPieces());
+                    } catch (IllegalArgumentException e)
+                    {
+                    }
+                }
+            }
+        }
+        keyList.add(key);
+        valueList.add(value);
+        indexList.add(new Integer(index));
+        return true;
+    }
+
+    /** Returns the text that gives the value of a property, where each slot
+     *  is replaced by its name, or null if any property can be set by a
+     *  key that contains slots. Two templates whose text is the same for a
+     *  property give the same value for that property.
+     *
+     * @param property One of the IdentificationResult.PROPERTY_XXX constants.
+     * @param slotNames The name of each slot.
+     */
+    String getSource(int property, String[] slotNames)
+    {
+        StringBuffer buffer = new StringBuffer();
+        int i;
+
+        for (i = 0; i < keys.length; i++)
+        {
+            if (keyProperties[i] == IdentificationResult.PROPERTY_ALL)
+                return null;
+            if (keyProperties[i] != property)
+                continue;
+            buffer.append(keys[i].getSource(slotNames));
+            buffer.append('=');
+            buffer.append(values[i].getSource(slotNames));
+            buffer.append(';');
+        }
+        if (property == IdentificationResult.PROPERTY_COMMENT)
+            buffer.append(comment.getSource(slotNames));
+        return buffer.toString();
+    }
+
+    /** Sets the properties of the description.
+     *
+     * @param slots The values of the slots.
+     * @param result The result to fill.
+     * @return false if nothing was set because a value contains one of the
+     *   characters that delimit the properties, in which case the
+     *   description must be parsed.
+     * @throws NumberFormatException If a property that is an expression
+     *   is not valid.
+     */
+    boolean apply(String[] slots, IdentificationResult result)
+    {
+        String key;
+        String value;
+        int index;
+        int i;
+        int j;
+        char c;
+
+        for (i = 0; i < slotCount; i++)
+        {
+            for (j = 0; j < slots[i].length(); j++)
+            {
+                c = slots[i].charAt(j);
+                if ((c == '[') || (c == ']') || (c == ';') || (c == '='))
+                    return false;
+            }
+        }
+        for (i = 0; i < keys.length; i++)
+        {
+            if (!result.isRequested(keyProperties[i]))
+                continue;
+            index = keyIndexes[i];
+            if (isDeferred(i, slots))
+            {
+                result.setDeferredProperty(keyProperties[i], this, i, slots);
+                continue;
+            }
+            if ((values[i].expression != null) && values[i].expression.isEvaluable(slots))
+            {
+                identifier.setPropertyValue(result, index, values[i].expression, slots);
+                continue;
+            }
+            // The constant values of known keys are already evaluated
+            if ((index >= 0) && (values[i].value != null))
+            {
+                result.setProperty(keys[i].value, values[i].value);
+                continue;
+            }
+            key = keys[i].get(slots);
+            value = values[i].get(slots);
+            if (index == -2)
+                index = identifier.getPropertyIndex(key);
+            if (index != -1)
+                identifier.setPropertyValue(result, index, value);
+            else
+                result.setProperty(key, value);
+        }
+        if (comment.value != null)
+            result.setProperty(IdentifierMagicDB.COMMENT_KEY, comment.value);
+        else
+            result.setDeferredProperty(IdentificationResult.PROPERTY_COMMENT, this, -1, slots);
+        return true;
+    }
+
+    /** Returns true if the property at the specified index is computed from
+     *  the slots, and computing it cannot fail, so that it can be computed
+     *  when it is accessed.
+     */
+    private boolean isDeferred(int i, String[] slots)
+    {
+        int index = keyIndexes[i];
+
+        if ((index < 0) || (values[i].value != null))
+            return false;
+        if (keyProperties[i] == IdentificationResult.PROPERTY_OTHER)
+            return false;
+        if (!identifier.isPropertyExpression(index))
+            return true;
+        if ((values[i].expression == null) || !values[i].expression.isEvaluable(slots))
+            return false;
+        return identifier.canSetPropertyValue(index, values[i].expression, slots);
+    }
+
+    /** Sets a property whose computation was deferred by {@link #apply(String[], IdentificationResult)}.
+     *
+     * @param item The index of the property, or -1 for the description.
+     * @param slots The values of the slots.
+     * @param result The result to fill.
+     */
+    void evaluate(int item, String[] slots, IdentificationResult result)
+    {
+        if (item == -1)
+            result.setProperty(IdentifierMagicDB.COMMENT_KEY, comment.get(slots));
+        else
+        if (identifier.isPropertyExpression(keyIndexes[item]))
+            identifier.setPropertyValue(result, keyIndexes[item], values[item].expression, slots);
+        else
+            identifier.setPropertyValue(result, keyIndexes[item], values[item].get(slots));
+    }
+
+    /** Text made of constant parts and slots. */
+    private static class Text
+    {
+        /** The text if it is constant, otherwise null */
+        String value;
+        /** The constant parts as String and the slots as Integer */
+        Object[] pieces;
+        boolean trim;
+        /** The compiled value if it is an expression with slots, or null */
+        Expression expression;
+
+        Text(char[] chars, int[] slots, int[] items, int start, int end, boolean trim)
+        {
+            LinkedList list = new LinkedList();
+            StringBuffer buffer = new StringBuffer();
+            int i;
+
+            this.trim = trim;
+            for (i = start; i < end; i++)
+            {
+                if (items[i] == ITEM_SEPARATOR)
+                    buffer.append(';');
+                else
+                if (slots[items[i]] == -1)
+                    buffer.append(chars[items[i]]);
+                else
+                {
+                    if (buffer.length() > 0)
+                    {
+                        list.add(buffer.toString());
+                        buffer.setLength(0);
+                    }
+                    list.add(new Integer(slots[items[i]]));
+                }
+            }
+            if (list.size() == 0)
+            {
+                value = buffer.toString();
+                if (trim)
+                    value = value.trim();
+                return;
+            }
+            if (buffer.length() > 0)
+                list.add(buffer.toString());
+            pieces = list.toArray();
+        }
+
+        /** Returns the pieces without the spaces at the start and end of
+         *  the text, when the slots do not contain spaces.
+         */
+        Object[] getTrimmedPieces()
+        {
+            Object[] trimmed = (Object[])pieces.clone();
+            String s;
+            int i;
+
+            if (trimmed[0] instanceof String)
+            {
+                s = (String)trimmed[0];
+                for (i = 0; (i < s.length()) && (s.charAt(i) <= ' '); i++)
+                {
+                }
+                trimmed[0] = s.substring(i);
+            }
+            if (trimmed[trimmed.length - 1] instanceof String)
+            {
+                s = (String)trimmed[trimmed.length - 1];
+                for (i = s.length(); (i > 0) && (s.charAt(i - 1) <= ' '); i--)
+                {
+                }
+                trimmed[trimmed.length - 1] = s.substring(0, i);
+            }
+            return trimmed;
+        }
+
+        /** Returns the text with the slots replaced by their name, without
+         *  removing the spaces.
+         */
+        String getSource(String[] slotNames)
+        {
+            StringBuffer buffer;
+            int i;
+
+            if (value != null)
+                return value;
+            buffer = new StringBuffer();
+            for (i = 0; i < pieces.length; i++)
+            {
+                if (pieces[i] instanceof String)
+                    buffer.append((String)pieces[i]);
+                else
+                    buffer.append(slotNames[((Integer)pieces[i]).intValue()]);
+            }
+            return buffer.toString();
+        }
+
+        /** Returns the text with the specified slot values. */
+        String get(String[] slots)
+        {
+            StringBuffer buffer;
+            int i;
+
+            if (value != null)
+                return value;
+            buffer = new StringBuffer();
+            for (i = 0; i < pieces.length; i++)
+            {
+                if (pieces[i] instanceof String)
+                    buffer.append((String)pieces[i]);
+                else
+                    buffer.append(slots[((Integer)pieces[i]).intValue()]);
+            }
+            if (trim)
+                return buffer.toString().trim();
+            return buffer.toString();
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
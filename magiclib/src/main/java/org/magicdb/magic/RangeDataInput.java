@@ -0,0 +1,356 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/** Random access input over one or more byte ranges of a resource
+ *  that are kept in memory. Each range is placed at its position in
+ *  the resource, so that the magic entries can be evaluated with
+ *  their normal offsets even if only parts of the resource are known.
+ *
+ *  <p>Reading a byte that is in none of the ranges throws a
+ *  {@link DataUnavailableException}, unless the length of the
+ *  resource is known and the byte is past it, in which case an
+ *  {@link EOFException} is thrown as for any other input.</p>
+ *
+ *  <p>The ranges are not copied, the caller must not modify them
+ *  while they are in use.</p>
+ */
+class RangeDataInput implements DataInput
+{
+  /** Length value indicating that the resource length is not known yet */
+  public static final long UNKNOWN_LENGTH = -1;
+
+  private long[] rangePositions;
+  private byte[][] rangeData;
+  private int[] rangeOffsets;
+  private int[] rangeLengths;
+  private int rangeCount;
+  /** Index of the range used by the last read */
+  private int currentRange;
+
+  private long length;
+  private long position;
+
+  public RangeDataInput()
+  {
+      rangePositions = new long[4];
+      rangeData = new byte[4][];
+      rangeOffsets = new int[4];
+      rangeLengths = new int[4];
+      length = UNKNOWN_LENGTH;
+  }
+
+  /** Creates an input over a single buffer that contains the complete
+   *  resource.
+   */
+  public RangeDataInput(byte[] b, int off, int len)
+  {
+      this();
+      addRange(0, b, off, len);
+      length = len;
+  }
+
+  /** Returns an input over the same ranges and with the same length,
+   *  which has its own position, so that it can be used by another
+   *  thread. The ranges added afterwards are not shared.
+   */
+  public RangeDataInput duplicate()
+  {
+      RangeDataInput input = new RangeDataInput();
+      int i;
+      for (i = 0; i < rangeCount; i++)
+      {
+          input.addRange(rangePositions[i], rangeData[i], rangeOffsets[i], rangeLengths[i]);
+      }
+      input.length = length;
+      return input;
+  }
+
+  /** Removes all ranges and sets the length as unknown. */
+  public void clear()
+  {
+      int i;
+      for (i = 0; i < rangeCount; i++)
+      {
+          rangeData[i] = null;
+      }
+      rangeCount = 0;
+      currentRange = 0;
+      length = UNKNOWN_LENGTH;
+      position = 0;
+  }
+
+  /** Adds a range of data located at the specified position of the
+   *  resource. Ranges should not overlap, if they do the one added
+   *  first is used.
+   */
+  public void addRange(long pos, byte[] b, int off, int len)
+  {
+      if (len == 0)
+          return;
+      if (rangeCount == rangePositions.length)
+      {
+          int newSize = rangeCount * 2;
+          long[] positions = new long[newSize];
+          byte[][] data = new byte[newSize][];
+          int[] offsets = new int[newSize];
+          int[] lengths = new int[newSize];
+          System.arraycopy(rangePositions, 0, positions, 0, rangeCount);
+          System.arraycopy(rangeData, 0, data, 0, rangeCount);
+          System.arraycopy(rangeOffsets, 0, offsets, 0, rangeCount);
+          System.arraycopy(rangeLengths, 0, lengths, 0, rangeCount);
+          rangePositions = positions;
+          rangeData = data;
+          rangeOffsets = offsets;
+          rangeLengths = lengths;
+      }
+      rangePositions[rangeCount] = pos;
+      rangeData[rangeCount] = b;
+      rangeOffsets[rangeCount] = off;
+      rangeLengths[rangeCount] = len;
+      rangeCount++;
+  }
+
+  /** Sets the total length of the resource, or {@link #UNKNOWN_LENGTH}. */
+  public void setLength(long length)
+  {
+      this.length = length;
+  }
+
+  /** Returns the total length of the resource, or {@link #UNKNOWN_LENGTH}. */
+  public long length()
+  {
+      return length;
+  }
+
+  public void seek(long pos)
+  {
+      position = pos;
+  }
+
+  public long getFilePointer()
+  {
+      return position;
+  }
+
+  /** Returns the number of bytes up to the end of the resource. If the
+   *  length is not known yet, this returns {@link Long#MAX_VALUE} so that
+   *  the missing bytes are reported when they are actually read.
+   */
+  public long available()
+  {
+      if (length == UNKNOWN_LENGTH)
+          return Long.MAX_VALUE;
+      if (position >= length)
+          return 0;
+      return length - position;
+  }
+
+  /** Returns true if the byte at the specified position is in memory. */
+  public boolean isAvailable(long pos)
+  {
+      return findRange(pos) != -1;
+  }
+
+  /** Returns true if the bytes at the specified position are all in
+   *  memory, in the same range.
+   */
+  public boolean isAvailable(long pos, int len)
+  {
+      int idx = findRange(pos);
+      if (idx == -1)
+          return false;
+      return pos + len <= rangePositions[idx] + rangeLengths[idx];
+  }
+
+  /** Reads up to 8 bytes as a big endian value, without copying them.
+   *  The bytes must all be in the same range, see {@link #isAvailable(long, int)}.
+   */
+  public long readBytes(int count)
+  {
+      int idx = findRange(position);
+      byte[] data = rangeData[idx];
+      int start = rangeOffsets[idx] + (int)(position - rangePositions[idx]);
+      long value = 0;
+      int i;
+      for (i = 0; i < count; i++)
+      {
+          value = (value << 8) | (data[start + i] & 0xff);
+      }
+      position += count;
+      return value;
+  }
+
+  private int findRange(long pos)
+  {
+      int i;
+      long start;
+      if (currentRange < rangeCount)
+      {
+          start = rangePositions[currentRange];
+          if ((pos >= start) && (pos < start + rangeLengths[currentRange]))
+              return currentRange;
+      }
+      for (i = 0; i < rangeCount; i++)
+      {
+          start = rangePositions[i];
+          if ((pos >= start) && (pos < start + rangeLengths[i]))
+          {
+              currentRange = i;
+              return i;
+          }
+      }
+      return -1;
+  }
+
+  private IOException unavailable(long pos, int len)
+  {
+      if ((length != UNKNOWN_LENGTH) && (pos >= length))
+          return new EOFException();
+      return new DataUnavailableException(pos, len, false);
+  }
+
+  public int readUnsignedByte() throws IOException
+  {
+      int idx = findRange(position);
+      if (idx == -1)
+          throw unavailable(position, 1);
+      int b = rangeData[idx][rangeOffsets[idx] + (int)(position - rangePositions[idx])] & 0xff;
+      position++;
+      return b;
+  }
+
+  public byte readByte() throws IOException
+  {
+      return (byte)readUnsignedByte();
+  }
+
+  public boolean readBoolean() throws IOException
+  {
+      return readUnsignedByte() != 0;
+  }
+
+  public void readFully(byte[] b) throws IOException
+  {
+      readFully(b, 0, b.length);
+  }
+
+  public void readFully(byte[] b, int off, int len) throws IOException
+  {
+      int idx;
+      int count;
+      int start;
+      while (len > 0)
+      {
+          idx = findRange(position);
+          if (idx == -1)
+              throw unavailable(position, len);
+          start = (int)(position - rangePositions[idx]);
+          count = Math.min(len, rangeLengths[idx] - start);
+          System.arraycopy(rangeData[idx], rangeOffsets[idx] + start, b, off, count);
+          position += count;
+          off += count;
+          len -= count;
+      }
+  }
+
+  public int skipBytes(int n) throws IOException
+  {
+      position += n;
+      return n;
+  }
+
+  public short readShort() throws IOException
+  {
+      int high = readUnsignedByte();
+      int low = readUnsignedByte();
+      return (short)((high << 8) | low);
+  }
+
+  public int readUnsignedShort() throws IOException
+  {
+      return readShort() & 0xFFFF;
+  }
+
+  public char readChar() throws IOException
+  {
+      return (char)readShort();
+  }
+
+  public int readInt() throws IOException
+  {
+      int high = readUnsignedShort();
+      int low = readUnsignedShort();
+      return (high << 16) | low;
+  }
+
+  public long readLong() throws IOException
+  {
+      long high = readInt() & 0xFFFFFFFFL;
+      long low = readInt() & 0xFFFFFFFFL;
+      return (high << 32) | low;
+  }
+
+  public float readFloat() throws IOException
+  {
+      return Float.intBitsToFloat(readInt());
+  }
+
+  public double readDouble() throws IOException
+  {
+      return Double.longBitsToDouble(readLong());
+  }
+
+  public String readLine() throws IOException
+  {
+      StringBuffer buffer = new StringBuffer();
+      int c;
+      while (available() > 0)
+      {
+          c = readUnsignedByte();
+          if (c == '\n')
+              break;
+          if (c == '\r')
+          {
+              if ((available() > 0) && isAvailable(position))
+              {
+                  if (readUnsignedByte() != '\n')
+                      position--;
+              }
+              break;
+          }
+          buffer.append((char)c);
+      }
+      if ((buffer.length() == 0) && (available() == 0))
+          return null;
+      return buffer.toString();
+  }
+
+  public String readUTF() throws IOException
+  {
+      return DataInputStream.readUTF(this);
+  }
+}
+
+/*
+
+  $Log$
+
+*/
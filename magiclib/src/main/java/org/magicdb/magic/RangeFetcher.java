@@ -0,0 +1,46 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.IOException;
+
+/** Reads byte ranges of a remote resource, such as an object in a
+ *  blob storage accessed with HTTP range requests. Each call is
+ *  expected to be one round-trip, so the ranges are grouped by the
+ *  {@link ReadPlanner} to do as few calls as possible.
+ */
+public interface RangeFetcher
+{
+    /** Returns the total length of the resource. */
+    public long getLength() throws IOException;
+
+    /** Reads several ranges of the resource in one request. The ranges
+     *  are sorted, do not overlap and are within the resource.
+     *
+     * @param positions The position of each range in the resource.
+     * @param buffers The buffers to fill completely with the data of
+     *   each range.
+     * @param count The number of ranges.
+     * @throws IOException In case of error reading the data.
+     */
+    public void fetch(long[] positions, byte[][] buffers, int count) throws IOException;
+}
+
+/*
+
+  $Log$
+
+*/
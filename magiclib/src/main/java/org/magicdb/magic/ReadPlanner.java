@@ -0,0 +1,296 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/** Identifies resources that are read with ranged reads, such as
+ *  objects in a blob storage, with as few round-trips as possible.
+ *
+ *  <p>The byte ranges read by the entries of the magic database with
+ *  direct offsets are computed once, and merged when they are close
+ *  to each other. They are all read in the first request, together
+ *  with the ranges relative to the end of the resource. A follow-up
+ *  request is only done when entries with indirect offsets, or the
+ *  additional information of the best match, need data that has not
+ *  been read yet.</p>
+ *
+ *  <p>The result is the same as calling
+ *  {@link IdentifierMagicDB#loadMetadata(java.io.DataInput, Properties)}
+ *  on the complete resource. Once created, a planner can be used by
+ *  several threads at the same time.</p>
+ */
+public class ReadPlanner
+{
+    /** Default maximum gap between two ranges that are read as one range */
+    public static final int DEFAULT_MERGE_GAP = 4096;
+    /** Minimum size of the ranges read in the follow-up requests */
+    private static final int MINIMUM_READ_SIZE = 256;
+
+    private IdentifierMagicDB identifier;
+    private int mergeGap;
+    /** Ranges read by the direct offset entries */
+    private RangeList headRanges;
+    /** Ranges read by the entries relative to the end, as negative offsets */
+    private RangeList tailRanges;
+
+    /** Creates a planner with the default merge gap.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     */
+    public ReadPlanner(IdentifierMagicDB identifier)
+    {
+        this(identifier, DEFAULT_MERGE_GAP);
+    }
+
+    /** Creates a planner.
+     *
+     * @param identifier The identifier containing the magic database,
+     *   {@link IdentifierMagicDB#initLibrary()} must have been called.
+     * @param mergeGap The maximum number of unneeded bytes between two
+     *   ranges for them to be read as a single range.
+     */
+    public ReadPlanner(IdentifierMagicDB identifier, int mergeGap)
+    {
+        super();
+        if (mergeGap < 0)
+            throw new IllegalArgumentException("Error: Merge gap cannot be negative");
+        this.identifier = identifier;
+        this.mergeGap = mergeGap;
+        plan();
+    }
+
+    /** Computes the ranges read by the entries that do not have an
+     *  indirect offset.
+     */
+    private void plan()
+    {
+        MagicEntry[] entryTable = identifier.getEntryTable();
+        MagicEntry entry;
+        LinkedList list;
+        long extent;
+        int i;
+        int j;
+        int k;
+
+        headRanges = new RangeList();
+        tailRanges = new RangeList();
+        for (i = 0; i < entryTable.length; i++)
+        {
+            for (k = 0; k < 2; k++)
+            {
+                list = (k == 0) ? entryTable[i].matchEntries : entryTable[i].extraMatchEntries;
+                for (j = -1; j < list.size(); j++)
+                {
+                    if (j == -1)
+                    {
+                        if (k != 0)
+                            continue;
+                        entry = entryTable[i];
+                    } else
+                        entry = (MagicEntry)list.get(j);
+                    extent = identifier.getEntryExtent(entry);
+                    if (extent == Long.MAX_VALUE)
+                        continue;
+                    if (extent < 0)
+                        tailRanges.add(entry.offset, entry.offset + identifier.getEntryReadLength(entry), mergeGap);
+                    else
+                        headRanges.add(entry.offset, extent, mergeGap);
+                }
+            }
+        }
+    }
+
+    /** From the resource read by the fetcher, try to identify the resource
+     *  and return the filled property table.
+     *
+     * @param fetcher The fetcher used to read the resource.
+     * @param metadata The returned metadata. The metadata table is NOT
+     *   cleared in this method, it will simply overwrite existing properties.
+     * @return true if at least one property was set, otherwise returns false
+     * @throws IOException In case of I/O exception.
+     */
+    public boolean loadMetadata(RangeFetcher fetcher, Properties metadata) throws IOException
+    {
+        PartialEvaluation evaluation = new PartialEvaluation(identifier);
+        RangeDataInput input = new RangeDataInput();
+        RangeList ranges;
+        Properties result;
+        long length;
+        int i;
+
+        length = fetcher.getLength();
+        input.setLength(length);
+        ranges = getInitialRanges(length);
+        while (true)
+        {
+            fetch(fetcher, ranges, input);
+            // The length is known, so only the entries with indirect
+            // offsets can still be missing data.
+            if (evaluation.evaluate(input, false) == IncrementalIdentifier.STATUS_FINAL)
+                break;
+            if (evaluation.getMissingCount() == 0)
+            {
+                evaluation.evaluate(input, true);
+                break;
+            }
+            ranges.clear();
+            for (i = 0; i < evaluation.getMissingCount(); i++)
+            {
+                ranges.add(evaluation.getMissingPosition(i),
+                    Math.min(length, evaluation.getMissingPosition(i) +
+                        Math.max(evaluation.getMissingLength(i), MINIMUM_READ_SIZE)), mergeGap);
+            }
+        }
+
+        result = evaluation.getResult();
+        if (result == null)
+            return false;
+        IdentifierMagicDB.copyProperties(result, metadata);
+        return true;
+    }
+
+    /** Reads the ranges in one request and adds them to the input. */
+    private static void fetch(RangeFetcher fetcher, RangeList ranges, RangeDataInput input) throws IOException
+    {
+        long[] positions;
+        byte[][] buffers;
+        int i;
+
+        if (ranges.count == 0)
+            return;
+        positions = new long[ranges.count];
+        buffers = new byte[ranges.count][];
+        for (i = 0; i < ranges.count; i++)
+        {
+            positions[i] = ranges.starts[i];
+            buffers[i] = new byte[(int)(ranges.ends[i] - ranges.starts[i])];
+        }
+        fetcher.fetch(positions, buffers, ranges.count);
+        for (i = 0; i < ranges.count; i++)
+        {
+            input.addRange(positions[i], buffers[i], 0, buffers[i].length);
+        }
+    }
+
+    /** Returns the number of ranges read in the first request for a
+     *  resource of the specified length.
+     */
+    public int getRangeCount(long length)
+    {
+        return getInitialRanges(length).count;
+    }
+
+    /** Returns the ranges read in the first request for a resource of
+     *  the specified length.
+     */
+    private RangeList getInitialRanges(long length)
+    {
+        RangeList ranges = new RangeList();
+        int i;
+        for (i = 0; i < headRanges.count; i++)
+        {
+            ranges.add(headRanges.starts[i], Math.min(length, headRanges.ends[i]), mergeGap);
+        }
+        for (i = 0; i < tailRanges.count; i++)
+        {
+            ranges.add(Math.max(0, length + tailRanges.starts[i]),
+                Math.min(length, length + tailRanges.ends[i]), mergeGap);
+        }
+        return ranges;
+    }
+
+    /** Sorted list of ranges, where close ranges are merged. */
+    private static class RangeList
+    {
+        long[] starts;
+        long[] ends;
+        int count;
+
+        RangeList()
+        {
+            starts = new long[8];
+            ends = new long[8];
+        }
+
+        void clear()
+        {
+            count = 0;
+        }
+
+        /** Adds the range [start, end), merging it with the ranges that
+         *  are at most gap bytes away, so that at most gap unneeded bytes
+         *  are read between two ranges.
+         */
+        void add(long start, long end, int gap)
+        {
+            int first;
+            int last;
+            int i;
+
+            if (start >= end)
+                return;
+            // Find the ranges to merge with
+            first = 0;
+            while ((first < count) && (ends[first] + gap < start))
+            {
+                first++;
+            }
+            last = first;
+            while ((last < count) && (starts[last] <= end + gap))
+            {
+                start = Math.min(start, starts[last]);
+                end = Math.max(end, ends[last]);
+                last++;
+            }
+            if (last == first)
+            {
+                // Insert a new range
+                if (count == starts.length)
+                {
+                    long[] newStarts = new long[count * 2];
+                    long[] newEnds = new long[count * 2];
+                    System.arraycopy(starts, 0, newStarts, 0, count);
+                    System.arraycopy(ends, 0, newEnds, 0, count);
+                    starts = newStarts;
+                    ends = newEnds;
+                }
+                System.arraycopy(starts, first, starts, first + 1, count - first);
+                System.arraycopy(ends, first, ends, first + 1, count - first);
+                count++;
+                last = first + 1;
+            }
+            starts[first] = start;
+            ends[first] = end;
+            // Remove the ranges merged in the first one
+            for (i = last; i < count; i++)
+            {
+                starts[first + 1 + i - last] = starts[i];
+                ends[first + 1 + i - last] = ends[i];
+            }
+            count -= last - first - 1;
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,186 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.util.Arrays;
+
+/** Values of the search entries that are looked for in the same range
+ *  of offsets, with the Boyer-Moore-Horspool algorithm.
+ *
+ *  <p>Each value can be looked for alone, using its own skip table, or
+ *  all the values can be looked for with a single scan of the data,
+ *  using a skip table computed over the start of all the values, up
+ *  to the length of the shortest one.</p>
+ *
+ *  <p>An instance can be used by several threads at the same time.</p>
+ */
+class SearchPatterns
+{
+    /** The index of these patterns in the identifier */
+    private int id;
+    private int range;
+    private byte[][] patterns;
+    /** The skip table of each value */
+    private int[][] skips;
+    /** The skip table for all the values */
+    private int[] skip;
+    private int minLength;
+    private int maxLength;
+
+    /** Creates the patterns of the search entries.
+     *
+     * @param id The index of these patterns in the identifier.
+     * @param range The number of offsets at which the values are looked for.
+     * @param patterns The values, which are not empty.
+     */
+    SearchPatterns(int id, int range, byte[][] patterns)
+    {
+        super();
+        int i;
+
+        this.id = id;
+        this.range = range;
+        this.patterns = patterns;
+        minLength = Integer.MAX_VALUE;
+        maxLength = 0;
+        skips = new int[patterns.length][];
+        for (i = 0; i < patterns.length; i++)
+        {
+            minLength = Math.min(minLength, patterns[i].length);
+            maxLength = Math.max(maxLength, patterns[i].length);
+            skips[i] = new int[256];
+            Arrays.fill(skips[i], patterns[i].length);
+            computeSkip(skips[i], patterns[i], patterns[i].length);
+        }
+        if (patterns.length == 1)
+            skip = skips[0];
+        else
+        {
+            skip = new int[256];
+            Arrays.fill(skip, minLength);
+            for (i = 0; i < patterns.length; i++)
+            {
+                computeSkip(skip, patterns[i], minLength);
+            }
+        }
+    }
+
+    /** Lowers the skip table so that a window of the specified length
+     *  is not moved past an occurrence of the start of the pattern.
+     */
+    private static void computeSkip(int[] skip, byte[] pattern, int length)
+    {
+        int i;
+
+        for (i = 0; i < length - 1; i++)
+        {
+            skip[pattern[i] & 0xff] = Math.min(skip[pattern[i] & 0xff], length - 1 - i);
+        }
+    }
+
+    /** Returns the index of these patterns in the identifier. */
+    int getId()
+    {
+        return id;
+    }
+
+    /** Returns the number of values. */
+    int getCount()
+    {
+        return patterns.length;
+    }
+
+    /** Returns the number of bytes read to look for all the values. */
+    int getWindowLength()
+    {
+        return range + maxLength - 1;
+    }
+
+    /** Returns the number of bytes read to look for the value at the
+     *  specified index.
+     */
+    int getWindowLength(int index)
+    {
+        return range + patterns[index].length - 1;
+    }
+
+    /** Returns the position of the first occurrence in the data of the
+     *  value at the specified index, or -1 if it is not found.
+     *
+     * @param b The data, starting at the first offset of the range.
+     * @param length The number of bytes of data.
+     */
+    int search(int index, byte[] b, int length)
+    {
+        byte[] pattern = patterns[index];
+        int[] patternSkip = skips[index];
+        int last = pattern.length - 1;
+        int pos;
+        int i;
+
+        for (pos = 0; (pos < range) && (pos + last < length); pos += patternSkip[b[pos + last] & 0xff])
+        {
+            for (i = last; (i >= 0) && (b[pos + i] == pattern[i]); i--)
+            {
+            }
+            if (i < 0)
+                return pos;
+        }
+        return -1;
+    }
+
+    /** Looks for all the values in the data with a single scan.
+     *
+     * @param b The data, starting at the first offset of the range.
+     * @param length The number of bytes of data.
+     * @return For each value, the position of its first occurrence in
+     *   the data, or -1 if it is not found.
+     */
+    int[] search(byte[] b, int length)
+    {
+        int[] found = new int[patterns.length];
+        int remaining = patterns.length;
+        int pos;
+        int i;
+        int j;
+
+        Arrays.fill(found, -1);
+        for (pos = 0; (pos < range) && (pos + minLength <= length); pos += skip[b[pos + minLength - 1] & 0xff])
+        {
+            for (i = 0; i < patterns.length; i++)
+            {
+                if ((found[i] >= 0) || (pos + patterns[i].length > length))
+                    continue;
+                for (j = patterns[i].length - 1; (j >= 0) && (b[pos + j] == patterns[i][j]); j--)
+                {
+                }
+                if (j < 0)
+                {
+                    found[i] = pos;
+                    remaining--;
+                }
+            }
+            if (remaining == 0)
+                break;
+        }
+        return found;
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,205 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/** Random access input over a part of a file, as if this part was
+ *  a standalone resource. Positions are relative to the start of the
+ *  part, and the end of the part is the end of the data, so entries
+ *  relative to the end of the resource use the end of the part.
+ *
+ *  <p>The data is read directly from the file, and the file pointer
+ *  of the file is moved by the reads.</p>
+ */
+class SliceDataInput implements DataInput
+{
+  private RandomAccessFile file;
+  private long start;
+  private long length;
+  /** The current position relative to the start of the part */
+  private long position;
+
+  /** Creates an input over a part of a file.
+   *
+   * @param file The file containing the part.
+   * @param start The position of the start of the part in the file.
+   * @param length The length of the part.
+   */
+  public SliceDataInput(RandomAccessFile file, long start, long length)
+  {
+      if ((start < 0) || (length < 0))
+          throw new IllegalArgumentException("Error: Invalid file part");
+      this.file = file;
+      this.start = start;
+      this.length = length;
+      position = 0;
+  }
+
+  /** Returns the length of the part. */
+  public long length()
+  {
+      return length;
+  }
+
+  public void seek(long pos) throws IOException
+  {
+      position = pos;
+      file.seek(start + pos);
+  }
+
+  public long getFilePointer()
+  {
+      return position;
+  }
+
+  /** Returns the number of bytes up to the end of the part. */
+  public long available()
+  {
+      if (position >= length)
+          return 0;
+      return length - position;
+  }
+
+  /** Checks that the specified number of bytes can be read before
+   *  the end of the part.
+   */
+  private void check(int count) throws EOFException
+  {
+      if ((position < 0) || (position + count > length))
+          throw new EOFException();
+      position += count;
+  }
+
+  public int readUnsignedByte() throws IOException
+  {
+      check(1);
+      return file.readUnsignedByte();
+  }
+
+  public byte readByte() throws IOException
+  {
+      check(1);
+      return file.readByte();
+  }
+
+  public boolean readBoolean() throws IOException
+  {
+      check(1);
+      return file.readBoolean();
+  }
+
+  public void readFully(byte[] b) throws IOException
+  {
+      check(b.length);
+      file.readFully(b);
+  }
+
+  public void readFully(byte[] b, int off, int len) throws IOException
+  {
+      check(len);
+      file.readFully(b, off, len);
+  }
+
+  public int skipBytes(int n) throws IOException
+  {
+      n = (int)Math.max(0, Math.min(n, available()));
+      seek(position + n);
+      return n;
+  }
+
+  public short readShort() throws IOException
+  {
+      check(2);
+      return file.readShort();
+  }
+
+  public int readUnsignedShort() throws IOException
+  {
+      check(2);
+      return file.readUnsignedShort();
+  }
+
+  public char readChar() throws IOException
+  {
+      check(2);
+      return file.readChar();
+  }
+
+  public int readInt() throws IOException
+  {
+      check(4);
+      return file.readInt();
+  }
+
+  public long readLong() throws IOException
+  {
+      check(8);
+      return file.readLong();
+  }
+
+  public float readFloat() throws IOException
+  {
+      check(4);
+      return file.readFloat();
+  }
+
+  public double readDouble() throws IOException
+  {
+      check(8);
+      return file.readDouble();
+  }
+
+  public String readLine() throws IOException
+  {
+      StringBuffer buffer = new StringBuffer();
+      int c;
+      if (available() == 0)
+          return null;
+      while (available() > 0)
+      {
+          c = readUnsignedByte();
+          if (c == '\n')
+              break;
+          if (c == '\r')
+          {
+              if (available() > 0)
+              {
+                  if (readUnsignedByte() != '\n')
+                      seek(position - 1);
+              }
+              break;
+          }
+          buffer.append((char)c);
+      }
+      return buffer.toString();
+  }
+
+  public String readUTF() throws IOException
+  {
+      return DataInputStream.readUTF(this);
+  }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,85 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/** Tests the asynchronous identification of files, with the database
+ *  res/errors.db.
+ */
+public class AsynchronousIdentifierTest extends MagicTestCase
+{
+    /** Identifier that fails with an error when a file is read. */
+    private static class FailingIdentifier extends IdentifierMagicDB
+    {
+        FailingIdentifier(InputStream in)
+        {
+            super(in);
+        }
+
+        long getHeadLength()
+        {
+            throw new StackOverflowError();
+        }
+    }
+
+    public void testError() throws Exception
+    {
+        IdentifierMagicDB failing = new FailingIdentifier(getClass().getResourceAsStream("/res/errors.db"));
+        AsynchronousIdentifier asynchronous;
+        IdentificationFuture future;
+        Properties metadata = new Properties();
+        File file;
+
+        failing.initLibrary();
+        // A single thread, which must go on after the error
+        asynchronous = new AsynchronousIdentifier(failing, 1);
+        file = File.createTempFile("magic", ".bin");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(data(8, 0, "GOOD"));
+            } finally
+            {
+                out.close();
+            }
+            future = asynchronous.identify(file);
+            assertTrue(future.waitFor(10000));
+            assertNotNull(future.getException());
+
+            future = asynchronous.identify(ByteBuffer.wrap(data(8, 0, "GOOD")));
+            assertTrue(future.waitFor(10000));
+            assertTrue(future.loadMetadata(metadata));
+            assertEquals("2", metadata.getProperty("fid"));
+        } finally
+        {
+            asynchronous.shutdown();
+            file.delete();
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,64 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+import java.util.Properties;
+
+/** Tests the identification of batches of resources, with the database
+ *  res/errors.db.
+ */
+public class ColumnarIdentifierTest extends MagicTestCase
+{
+    protected void setUp() throws IOException
+    {
+        loadDatabase("errors.db");
+    }
+
+    public void testFailingResource() throws IOException
+    {
+        byte[][] data = new byte[][] { data(8, 0, "OKab"), data(8, 0, "OKa;b"), data(8, 0, "GOOD") };
+        Properties[] metadata = new Properties[data.length];
+        IOException[] errors = new IOException[data.length];
+        int i;
+
+        for (i = 0; i < data.length; i++)
+        {
+            metadata[i] = new Properties();
+        }
+        assertEquals(2, new ColumnarIdentifier(identifier, 16).loadMetadata(data, metadata, errors));
+        assertNull(errors[0]);
+        assertEquals("1", metadata[0].getProperty("fid"));
+        assertEquals("ab", metadata[0].getProperty("title"));
+        assertNotNull(errors[1]);
+        assertNull(errors[2]);
+        assertEquals("2", metadata[2].getProperty("fid"));
+    }
+
+    public void testWithoutErrors() throws IOException
+    {
+        byte[][] data = new byte[][] { data(8, 0, "OKa;b"), data(8, 0, "GOOD") };
+        Properties[] metadata = new Properties[] { new Properties(), new Properties() };
+
+        assertEquals(1, new ColumnarIdentifier(identifier, 16).loadMetadata(data, metadata, null));
+        assertEquals("2", metadata[1].getProperty("fid"));
+    }
+}
+
+/*
+
+  $Log$
+
+*/
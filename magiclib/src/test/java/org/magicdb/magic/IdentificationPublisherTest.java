@@ -0,0 +1,145 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/** Tests the publication of identification results, with the database
+ *  res/errors.db.
+ */
+public class IdentificationPublisherTest extends MagicTestCase
+{
+    private AsynchronousIdentifier asynchronous;
+
+    protected void setUp() throws IOException
+    {
+        loadDatabase("errors.db");
+        asynchronous = new AsynchronousIdentifier(identifier, 2);
+    }
+
+    protected void tearDown()
+    {
+        asynchronous.shutdown();
+    }
+
+    /** Subscriber that requests a number of results when subscribed, and
+     *  that can fail on a result.
+     */
+    private static class Subscriber implements IdentificationSubscriber
+    {
+        private long initialRequest;
+        private boolean failing;
+        List results = new ArrayList();
+        boolean completed;
+        Throwable error;
+        int terminations;
+
+        Subscriber(long initialRequest, boolean failing)
+        {
+            this.initialRequest = initialRequest;
+            this.failing = failing;
+        }
+
+        public void onSubscribe(IdentificationPublisher publisher)
+        {
+            publisher.request(initialRequest);
+        }
+
+        public synchronized void onNext(IdentificationFuture result)
+        {
+            results.add(result);
+            if (failing)
+                throw new IllegalStateException("Error: Subscriber failure");
+        }
+
+        public synchronized void onComplete()
+        {
+            completed = true;
+            terminations++;
+            notifyAll();
+        }
+
+        public synchronized void onError(Throwable e)
+        {
+            error = e;
+            terminations++;
+            notifyAll();
+        }
+
+        synchronized void waitForTermination() throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 10000;
+            while ((terminations == 0) && (System.currentTimeMillis() < end))
+            {
+                wait(end - System.currentTimeMillis());
+            }
+            assertEquals("terminations", 1, terminations);
+        }
+    }
+
+    private static List sources(int count) throws IOException
+    {
+        List sources = new ArrayList();
+        int i;
+
+        for (i = 0; i < count; i++)
+        {
+            sources.add(data(8, 0, "GOOD"));
+        }
+        return sources;
+    }
+
+    public void testExactRequest() throws Exception
+    {
+        Subscriber subscriber = new Subscriber(3, false);
+        Properties metadata = new Properties();
+
+        new IdentificationPublisher(asynchronous, sources(3).iterator(), 2).subscribe(subscriber);
+        subscriber.waitForTermination();
+        assertTrue(subscriber.completed);
+        assertEquals(3, subscriber.results.size());
+        assertTrue(((IdentificationFuture)subscriber.results.get(0)).loadMetadata(metadata));
+        assertEquals("2", metadata.getProperty("fid"));
+    }
+
+    public void testNoSources() throws Exception
+    {
+        Subscriber subscriber = new Subscriber(1, false);
+
+        new IdentificationPublisher(asynchronous, sources(0).iterator(), 2).subscribe(subscriber);
+        subscriber.waitForTermination();
+        assertTrue(subscriber.completed);
+    }
+
+    public void testFailingSubscriber() throws Exception
+    {
+        Subscriber subscriber = new Subscriber(Long.MAX_VALUE, true);
+
+        new IdentificationPublisher(asynchronous, sources(5).iterator(), 1).subscribe(subscriber);
+        subscriber.waitForTermination();
+        assertFalse(subscriber.completed);
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertEquals(1, subscriber.results.size());
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,70 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+
+/** Tests the ranked list of candidate matches, with the database
+ *  res/errors.db.
+ */
+public class IdentifyCandidatesTest extends MagicTestCase
+{
+    private IdentificationResult[] results;
+
+    protected void setUp() throws IOException
+    {
+        loadDatabase("errors.db");
+        results = new IdentificationResult[] { new IdentificationResult(), new IdentificationResult() };
+    }
+
+    private int identifyCandidates(byte[] b) throws IOException
+    {
+        return identifier.identifyCandidates(new RangeDataInput(b, 0, b.length), results);
+    }
+
+    public void testCandidates() throws IOException
+    {
+        assertEquals(2, identifyCandidates(data(8, 0, "GOODab")));
+        assertEquals("2", results[0].getFormatId());
+        assertEquals("3", results[1].getFormatId());
+        assertEquals("ab", results[1].getTitle());
+        assertTrue(results[0].getScore() > results[1].getScore());
+    }
+
+    public void testFailingCandidate() throws IOException
+    {
+        // The best candidate is kept when the second one cannot be described
+        assertEquals(1, identifyCandidates(data(8, 0, "GOODa;b")));
+        assertEquals("2", results[0].getFormatId());
+        assertFalse(results[1].isIdentified());
+    }
+
+    public void testFailingBestCandidate() throws IOException
+    {
+        try
+        {
+            identifyCandidates(data(8, 0, "OKa;b"));
+            fail("Best candidate described");
+        } catch (RuntimeException e)
+        {
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
@@ -0,0 +1,121 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Properties;
+
+/** Tests the streams that identify the data passing through them, with
+ *  the database res/errors.db.
+ */
+public class IdentifyingStreamTest extends MagicTestCase
+{
+    protected void setUp() throws IOException
+    {
+        loadDatabase("errors.db");
+    }
+
+    /** Reads all the data through an identifying input stream, in small
+     *  chunks.
+     */
+    private static byte[] readAll(IdentifyingInputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[3];
+        int count;
+
+        while ((count = in.read(b, 0, b.length)) != -1)
+        {
+            out.write(b, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    public void testInputStream() throws IOException
+    {
+        byte[] b = data(64, 0, "OKab");
+        IdentifyingInputStream in = new IdentifyingInputStream(new ByteArrayInputStream(b), identifier);
+        Properties metadata = new Properties();
+
+        assertTrue(Arrays.equals(b, readAll(in)));
+        assertNull(in.getIdentificationException());
+        assertTrue(in.loadMetadata(metadata));
+        assertEquals("ab", metadata.getProperty("title"));
+    }
+
+    public void testInputStreamFailure() throws IOException
+    {
+        byte[] b = data(64, 0, "OKa;b");
+        IdentifyingInputStream in = new IdentifyingInputStream(new ByteArrayInputStream(b), identifier);
+
+        // The data is still read when it cannot be identified
+        assertTrue(Arrays.equals(b, readAll(in)));
+        assertNotNull(in.getIdentificationException());
+        assertFalse(in.loadMetadata(new Properties()));
+    }
+
+    public void testOutputStreamFailure() throws IOException
+    {
+        byte[] b = data(64, 0, "OKa;b");
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        IdentifyingOutputStream out = new IdentifyingOutputStream(written, identifier);
+        int off;
+
+        for (off = 0; off < b.length; off += 3)
+        {
+            out.write(b, off, Math.min(3, b.length - off));
+        }
+        out.close();
+        assertTrue(Arrays.equals(b, written.toByteArray()));
+        assertNotNull(out.getIdentificationException());
+        assertFalse(out.loadMetadata(new Properties()));
+    }
+
+    public void testChannelFailure() throws IOException
+    {
+        byte[] b = data(64, 0, "OKa;b");
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(written);
+        IdentifyingByteChannel out = new IdentifyingByteChannel(channel, identifier);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        int off;
+
+        for (off = 0; off < b.length; off += 3)
+        {
+            buffer.clear();
+            buffer.put(b, off, Math.min(3, b.length - off));
+            buffer.flip();
+            out.write(buffer);
+        }
+        out.close();
+        assertFalse(channel.isOpen());
+        assertTrue(Arrays.equals(b, written.toByteArray()));
+        assertNotNull(out.getIdentificationException());
+        assertFalse(out.loadMetadata(new Properties()));
+    }
+}
+
+/*
+
+  $Log$
+
+*/
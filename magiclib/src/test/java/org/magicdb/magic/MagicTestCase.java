@@ -0,0 +1,192 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/** Base class of the tests that identify data with a test database.
+ *  Each resource is identified from memory, and the result is verified
+ *  to be the same when the resource is read from a file, from a stream,
+ *  in chunks, with planned reads and in a batch.
+ */
+abstract class MagicTestCase extends TestCase
+{
+    /** The header of a magic database */
+    protected static final String HEADER = "# FILE_ID DB\n# Date:2026-10-18\n# Source:test\n";
+
+    protected IdentifierMagicDB identifier;
+
+    /** Loads a test database from the res directory of the test resources. */
+    protected void loadDatabase(String name) throws IOException
+    {
+        identifier = new IdentifierMagicDB(getClass().getResourceAsStream("/res/" + name));
+        identifier.initLibrary();
+    }
+
+    /** Parses a database made of the specified lines after the header. */
+    protected static IdentifierMagicDB parseDatabase(String lines) throws IOException
+    {
+        IdentifierMagicDB db = new IdentifierMagicDB(new ByteArrayInputStream((HEADER + lines).getBytes("ISO8859_1")));
+        db.initLibrary();
+        return db;
+    }
+
+    /** Verifies that the specified lines are rejected by the parser. */
+    protected static void assertInvalid(String lines) throws IOException
+    {
+        try
+        {
+            parseDatabase(lines);
+            fail("Database accepted: " + lines);
+        } catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    /** Returns data of the specified length filled with zeros, with the
+     *  specified string copied at the offset.
+     */
+    protected static byte[] data(int length, int offset, String s) throws IOException
+    {
+        byte[] b = new byte[length];
+        put(b, offset, s);
+        return b;
+    }
+
+    /** Copies a string into the data at the specified offset. */
+    protected static void put(byte[] b, int offset, String s) throws IOException
+    {
+        byte[] value = s.getBytes("ISO8859_1");
+        System.arraycopy(value, 0, b, offset, value.length);
+    }
+
+    /** Identifies the data with all the identifiers, and returns the
+     *  properties found.
+     */
+    protected Properties identify(byte[] b) throws IOException
+    {
+        Properties expected = new Properties();
+        File file;
+
+        identifier.loadMetadata(b, 0, b.length, expected);
+        assertEquals("stream", expected, identifyStream(b, true));
+        assertEquals("stream without quick mode", expected, identifyStream(b, false));
+        assertEquals("chunks", expected, identifyChunks(b, 7));
+        assertEquals("batch", expected, identifyBatch(b));
+        file = File.createTempFile("magic", ".bin");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(b);
+            } finally
+            {
+                out.close();
+            }
+            assertEquals("file", expected, identifyFile(file, true));
+            assertEquals("file without quick mode", expected, identifyFile(file, false));
+            assertEquals("planned reads", expected, identifyPlanned(file));
+        } finally
+        {
+            file.delete();
+        }
+        return expected;
+    }
+
+    private Properties identifyStream(byte[] b, boolean quickMode) throws IOException
+    {
+        Properties metadata = new Properties();
+        identifier.setQuickMode(quickMode);
+        try
+        {
+            identifier.loadMetadata(new DataInputStream(new ByteArrayInputStream(b)), metadata);
+        } finally
+        {
+            identifier.setQuickMode(true);
+        }
+        return metadata;
+    }
+
+    private Properties identifyFile(File file, boolean quickMode) throws IOException
+    {
+        Properties metadata = new Properties();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        identifier.setQuickMode(quickMode);
+        try
+        {
+            identifier.loadMetadata(input, metadata);
+        } finally
+        {
+            identifier.setQuickMode(true);
+            input.close();
+        }
+        return metadata;
+    }
+
+    private Properties identifyChunks(byte[] b, int chunkLength) throws IOException
+    {
+        IncrementalIdentifier incremental = new IncrementalIdentifier(identifier);
+        Properties metadata = new Properties();
+        int off;
+
+        for (off = 0; off < b.length; off += chunkLength)
+        {
+            incremental.feed(b, off, Math.min(chunkLength, b.length - off));
+        }
+        incremental.finish();
+        incremental.loadMetadata(metadata);
+        return metadata;
+    }
+
+    private Properties identifyPlanned(File file) throws IOException
+    {
+        FileRangeFetcher fetcher = new FileRangeFetcher(file);
+        Properties metadata = new Properties();
+        try
+        {
+            new ReadPlanner(identifier).loadMetadata(fetcher, metadata);
+        } finally
+        {
+            fetcher.close();
+        }
+        return metadata;
+    }
+
+    private Properties identifyBatch(byte[] b) throws IOException
+    {
+        Properties[] metadata = new Properties[] { new Properties() };
+        IOException[] errors = new IOException[1];
+
+        new ColumnarIdentifier(identifier, 16).loadMetadata(new byte[][] { b }, metadata, errors);
+        if (errors[0] != null)
+            throw errors[0];
+        return metadata[0];
+    }
+}
+
+/*
+
+  $Log$
+
+*/
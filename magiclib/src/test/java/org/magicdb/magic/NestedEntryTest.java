@@ -0,0 +1,122 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+import java.util.Properties;
+
+/** Tests the nested continuation entries and the offsets relative to
+ *  the parent entry, with the database res/nested.db.
+ */
+public class NestedEntryTest extends MagicTestCase
+{
+    protected void setUp() throws IOException
+    {
+        loadDatabase("nested.db");
+    }
+
+    /** Returns a RIFF header where all the additional information entries match. */
+    private static byte[] riff() throws IOException
+    {
+        byte[] b = data(48, 0, "RIFFxxxxWAVEfmt A");
+        b[20] = 16;
+        b[24] = 1;
+        put(b, 34, "ZZ");
+        return b;
+    }
+
+    public void testRelativeOffsets() throws IOException
+    {
+        Properties metadata = identify(riff());
+        assertEquals("1", metadata.getProperty("fid"));
+        assertEquals("RIFF, fmt size 16 PCM A, zz", metadata.getProperty("comment"));
+    }
+
+    public void testRelativeContinuation() throws IOException
+    {
+        byte[] b = riff();
+        put(b, 8, "WAVF");
+        assertNull(identify(b).getProperty("fid"));
+    }
+
+    public void testNestedEntryNotMatching() throws IOException
+    {
+        byte[] b = riff();
+        b[24] = 2;
+        assertEquals("RIFF, fmt size 16null A, zz", identify(b).getProperty("comment"));
+    }
+
+    public void testParentNotMatching() throws IOException
+    {
+        // The nested entries are not read, only the entry of level 1
+        // that does not match gives "null"
+        byte[] b = riff();
+        put(b, 12, "data");
+        assertEquals("RIFFnull, zz", identify(b).getProperty("comment"));
+    }
+
+    public void testRelativeToSearch() throws IOException
+    {
+        byte[] b = data(64, 0, "AB");
+        put(b, 10, "CD");
+        b[13] = 7;
+        assertEquals("ABnull", identify(b).getProperty("comment"));
+        b[12] = 7;
+        b[13] = 0;
+        assertNull(identify(b).getProperty("fid"));
+        put(b, 5, "CD");
+        b[8] = 7;
+        put(b, 20, "EE");
+        assertEquals("AB EEnull", identify(b).getProperty("comment"));
+        put(b, 22, "FF");
+        assertEquals("AB EE FF", identify(b).getProperty("comment"));
+    }
+
+    public void testNestedDirectOffsets() throws IOException
+    {
+        byte[] b = data(16, 0, "XY");
+        b[4] = 1;
+        assertNull(identify(b).getProperty("fid"));
+        b[5] = 2;
+        assertEquals("3", identify(b).getProperty("fid"));
+    }
+
+    public void testRequestedProperties() throws IOException
+    {
+        IdentificationResult result = new IdentificationResult();
+        byte[] b = riff();
+
+        result.setRequestedProperties(IdentificationResult.PROPERTY_COMMENT);
+        assertTrue(identifier.loadMetadata(b, 0, b.length, new Properties()));
+        identifier.identify(new RangeDataInput(b, 0, b.length), result);
+        assertEquals("RIFF, fmt size 16 PCM A, zz", result.getComment());
+        result.setRequestedProperties(IdentificationResult.PROPERTY_FORMAT_ID);
+        identifier.identify(new RangeDataInput(b, 0, b.length), result);
+        assertEquals("1", result.getFormatId());
+    }
+
+    public void testInvalidEntries() throws IOException
+    {
+        assertInvalid("0\tstring\tA\tx\n>0\tbyte\t1\ty\n>>>0\tbyte\t1\tz\n");
+        assertInvalid("0\tstring\tA\tx\n>>0\tbyte\t1\ty\n");
+        assertInvalid("0\tstring\tA\tx\n&+(4.l)\tbyte\t1\t\n");
+    }
+}
+
+/*
+
+  $Log$
+
+*/
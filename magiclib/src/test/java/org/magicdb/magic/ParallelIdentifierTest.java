@@ -0,0 +1,113 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Properties;
+
+/** Tests the parallel evaluation of the entry table, with the database
+ *  res/errors.db.
+ */
+public class ParallelIdentifierTest extends MagicTestCase
+{
+    /** Identifier that fails with an error when the entries are evaluated
+     *  by another thread than the calling thread.
+     */
+    private static class FailingIdentifier extends IdentifierMagicDB
+    {
+        private Thread caller;
+        private int failures;
+
+        FailingIdentifier(InputStream in)
+        {
+            super(in);
+            caller = Thread.currentThread();
+        }
+
+        void evaluateEntries(RangeDataInput input, int from, int to, byte[] states, long[] missingPositions,
+            int[] missingLengths) throws IOException
+        {
+            long end = System.currentTimeMillis() + 10000;
+
+            synchronized (this)
+            {
+                if (Thread.currentThread() != caller)
+                {
+                    failures++;
+                    notifyAll();
+                    throw new StackOverflowError();
+                }
+                // The calling thread waits until a part failed in another thread
+                while ((failures == 0) && (System.currentTimeMillis() < end))
+                {
+                    try
+                    {
+                        wait(end - System.currentTimeMillis());
+                    } catch (InterruptedException e)
+                    {
+                        throw new InterruptedIOException("Error: Interrupted while waiting");
+                    }
+                }
+            }
+        }
+    }
+
+    public void testParallel() throws IOException
+    {
+        ParallelIdentifier parallel;
+        Properties metadata = new Properties();
+        byte[] b = data(8, 0, "GOOD");
+
+        loadDatabase("errors.db");
+        parallel = new ParallelIdentifier(identifier, 3, 0);
+        try
+        {
+            assertTrue(parallel.isParallel());
+            assertTrue(parallel.loadMetadata(b, 0, b.length, metadata));
+            assertEquals("2", metadata.getProperty("fid"));
+        } finally
+        {
+            parallel.shutdown();
+        }
+    }
+
+    public void testError() throws IOException
+    {
+        IdentifierMagicDB failing = new FailingIdentifier(getClass().getResourceAsStream("/res/errors.db"));
+        ParallelIdentifier parallel;
+        byte[] b = data(8, 0, "GOOD");
+
+        failing.initLibrary();
+        parallel = new ParallelIdentifier(failing, 3, 0);
+        try
+        {
+            parallel.loadMetadata(b, 0, b.length, new Properties());
+            fail("Error not thrown");
+        } catch (StackOverflowError e)
+        {
+        } finally
+        {
+            parallel.shutdown();
+        }
+    }
+}
+
+/*
+
+  $Log$
+
+*/
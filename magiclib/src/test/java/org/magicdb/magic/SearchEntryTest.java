@@ -0,0 +1,109 @@
+package org.magicdb.magic;
+/*
+ * Copyright (c) 2016 Optima SC Inc. Licensed under Apache License 1.1
+ *
+ * -----------------------------------------------------------------------------
+ * THIS SOFTWARE IS NOT DESIGNED OR INTENDED FOR USE OR RESALE AS ON-LINE
+ * CONTROL EQUIPMENT IN HAZARDOUS ENVIRONMENTS REQUIRING FAIL-SAFE
+ * PERFORMANCE, SUCH AS IN THE OPERATION OF NUCLEAR FACILITIES, AIRCRAFT
+ * NAVIGATION OR COMMUNICATION SYSTEMS, AIR TRAFFIC CONTROL, DIRECT LIFE
+ * SUPPORT MACHINES, OR WEAPONS SYSTEMS, IN WHICH THE FAILURE OF THE
+ * SOFTWARE COULD LEAD DIRECTLY TO DEATH, PERSONAL INJURY, OR SEVERE
+ * PHYSICAL OR ENVIRONMENTAL DAMAGE ("HIGH RISK ACTIVITIES"). OPTIMA SC
+ * SPECIFICALLY DISCLAIMS ANY EXPRESS OR IMPLIED WARRANTY OF FITNESS FOR
+ * HIGH RISK ACTIVITIES.
+ */
+
+import java.io.IOException;
+import java.util.Properties;
+
+/** Tests the entries of type search/N, with the database res/search.db. */
+public class SearchEntryTest extends MagicTestCase
+{
+    protected void setUp() throws IOException
+    {
+        loadDatabase("search.db");
+    }
+
+    public void testValueInRange() throws IOException
+    {
+        assertEquals("1", identify(data(100, 0, "<?xml")).getProperty("fid"));
+        assertEquals("1", identify(data(100, 63, "<?xml")).getProperty("fid"));
+        assertEquals("2", identify(data(100, 20, "<html")).getProperty("fid"));
+    }
+
+    public void testValueOutOfRange() throws IOException
+    {
+        assertNull(identify(data(100, 64, "<?xml")).getProperty("fid"));
+    }
+
+    public void testValueAtEnd() throws IOException
+    {
+        // The bytes after the end are not searched
+        assertEquals("1", identify(data(40, 35, "<?xml")).getProperty("fid"));
+        assertNull(identify(data(40, 36, "<?xm")).getProperty("fid"));
+    }
+
+    public void testDatabaseOrder() throws IOException
+    {
+        byte[] b = data(100, 30, "<?xml");
+        put(b, 10, "<HTML");
+        assertEquals("1", identify(b).getProperty("fid"));
+    }
+
+    public void testAdditionalInformation() throws IOException
+    {
+        byte[] b = data(2000, 500, "%PDF-");
+        Properties metadata = identify(b);
+        assertEquals("4", metadata.getProperty("fid"));
+        assertEquals("application/pdf", metadata.getProperty("mime"));
+        assertEquals(-1, metadata.getProperty("comment").indexOf(", complete"));
+        put(b, 1000, "%%EOF");
+        assertEquals("PDF document, complete", identify(b).getProperty("comment"));
+    }
+
+    public void testContinuation() throws IOException
+    {
+        byte[] b = data(300, 0, "ID3");
+        assertNull(identify(b).getProperty("fid"));
+        put(b, 150, "LAME");
+        assertEquals("5", identify(b).getProperty("fid"));
+    }
+
+    public void testIndirectOffset() throws IOException
+    {
+        byte[] b = data(100, 40, "AB");
+        b[4] = 35;
+        assertEquals("6", identify(b).getProperty("fid"));
+        b[4] = 20;
+        assertNull(identify(b).getProperty("fid"));
+    }
+
+    public void testFromEnd() throws IOException
+    {
+        assertEquals("7", identify(data(100, 96, "END!")).getProperty("fid"));
+        assertEquals("7", identify(data(100, 80, "END!")).getProperty("fid"));
+        assertNull(identify(data(100, 79, "END!")).getProperty("fid"));
+    }
+
+    public void testLongestValue() throws IOException
+    {
+        assertEquals("9", identify(data(10, 2, "QQQQ")).getProperty("fid"));
+        assertEquals("8", identify(data(10, 2, "QQQ")).getProperty("fid"));
+        assertNull(identify(data(10, 3, "QQQQ")).getProperty("fid"));
+    }
+
+    public void testInvalidEntries() throws IOException
+    {
+        assertInvalid("0\tsearch/0\tA\tx\n");
+        assertInvalid("0\tsearch/-4\tA\tx\n");
+        assertInvalid("0\tsearch/4\t>A\tx\n");
+        assertInvalid("0\tsearch/4\tx\tx\n");
+    }
+}
+
+/*
+
+  $Log$
+
+*/